@@ -1,33 +1,68 @@
 caa = Proto("CAA2", "CAA 2 Protocol")
 
+local HEADER_SIZE = 36
+
+local flagNames = { [1] = "ACK", [2] = "SYN", [4] = "ANNOUNCE", [8] = "SACK", [16] = "GROUP", [32] = "NACK", [64] = "PARITY" }
+local optionNames = { [1] = "MORE_FRAGMENTS", [2] = "COMPRESSED" }
+
+local function names(value, known)
+    local result = ""
+
+    for i = 0, 7 do
+        local mask = bit.lshift(1, i)
+
+        if known[mask] ~= nil and bit.band(value, mask) ~= 0 then
+            result = result .. (result == "" and "" or " ") .. known[mask]
+        end
+    end
+
+    return result
+end
+
+local function address(range)
+    return range(0, 1):uint() .. "." .. range(1, 1):uint() .. "." .. range(2, 1):uint() .. "." .. range(3, 1):uint()
+end
+
 function caa.dissector(buffer, pinfo, tree)
+    if buffer:len() < HEADER_SIZE then
+        return 0
+    end
+
+    local flags = buffer(4, 1):uint()
+    local options = buffer(26, 1):uint()
+
     pinfo.cols.protocol = "CAA2"
-    pinfo.cols.info = "CAA2 " 
-        .. (buffer(0, 1):bitfield(7, 1) == 1 and "SYN" or "")
-        .. (buffer(0, 1):bitfield(6, 1) == 1 and "ACK" or "")
+    pinfo.cols.info = "CAA2 " .. names(flags, flagNames)
+        .. " " .. address(buffer(16, 4)) .. " -> " .. address(buffer(20, 4))
 
     local subtree = tree:add(caa, buffer(), "CAA Protocol")
 
-    local flagsSubtree = subtree:add(buffer(0, 1), "Flags: " 
-        .. buffer(0, 1):bitfield(0, 1)
-        .. buffer(0, 1):bitfield(1, 1)
-        .. buffer(0, 1):bitfield(2, 1)
-        .. buffer(0, 1):bitfield(3, 1)
-        .. buffer(0, 1):bitfield(4, 1)
-        .. buffer(0, 1):bitfield(5, 1)
-        .. buffer(0, 1):bitfield(6, 1)
-        .. buffer(0, 1):bitfield(7, 1))
-
-    flagsSubtree:add(buffer(0, 1), "SYN: " .. buffer(0, 1):bitfield(7, 1))
-    flagsSubtree:add(buffer(0, 1), "ACK: " .. buffer(0, 1):bitfield(6, 1))
-
-    subtree:add(buffer(1, 4), "Sequence Number: " .. buffer(1, 4):uint())
-    subtree:add(buffer(5, 4), "Acknowledgement Number: " .. buffer(5, 4):uint())
-    subtree:add(buffer(9, 4), "Retransmission Number: " .. buffer(9, 4):uint())
-    subtree:add(buffer(13, 4), "Source address: " .. buffer(13, 1):uint() .. "." .. buffer(14, 1):uint() .. "." .. buffer(15, 1):uint() .. "." .. buffer(16, 1):uint())
-    subtree:add(buffer(17, 4), "Destination address: " .. buffer(17, 1):uint() .. "." .. buffer(18, 1):uint() .. "." .. buffer(19, 1):uint() .. "." .. buffer(20, 1):uint())
-    subtree:add(buffer(21, buffer:len() - 21), "Payload")
+    subtree:add(buffer(0, 4), "Number used once: " .. buffer(0, 4):uint())
+
+    local flagsSubtree = subtree:add(buffer(4, 1), "Flags: " .. names(flags, flagNames))
+
+    for i = 0, 6 do
+        local mask = bit.lshift(1, i)
+        flagsSubtree:add(buffer(4, 1), flagNames[mask] .. ": " .. (bit.band(flags, mask) ~= 0 and 1 or 0))
+    end
+
+    subtree:add(buffer(5, 1), "Hop Limit: " .. buffer(5, 1):uint())
+    subtree:add(buffer(6, 2), "Selective Acknowledgments: " .. string.format("0x%04x", buffer(6, 2):uint()))
+    subtree:add(buffer(8, 4), "Sequence Number: " .. buffer(8, 4):uint())
+    subtree:add(buffer(12, 4), "Acknowledgement Number: " .. buffer(12, 4):uint())
+    subtree:add(buffer(16, 4), "Source address: " .. address(buffer(16, 4)))
+    subtree:add(buffer(20, 4), "Destination address: " .. address(buffer(20, 4)))
+    subtree:add(buffer(24, 2), "Window: " .. buffer(24, 2):uint())
+    subtree:add(buffer(26, 1), "Options: " .. names(options, optionNames))
+    subtree:add(buffer(28, 4), "Previous hop: " .. address(buffer(28, 4)))
+    subtree:add(buffer(32, 4), "Next hop: " .. address(buffer(32, 4)))
+
+    if buffer:len() > HEADER_SIZE then
+        subtree:add(buffer(HEADER_SIZE, buffer:len() - HEADER_SIZE), "Payload")
+    end
+
+    return buffer:len()
 end
 
 udp_table = DissectorTable.get("udp.port")
-udp_table:add(1234, caa)
\ No newline at end of file
+udp_table:add(1234, caa)
@@ -5,14 +5,21 @@ import com.google.gson.Gson;
 import transport_v2.*;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * NetworkHandler handles all network traffic.
  */
 public class NetworkHandler extends Thread {
+    private static final int BATCH_SIZE = 64;
+    private static final long POLL_TIMEOUT = 500;
+
     private ApplicationState state;
     private Socket socket;
-    private boolean listening = true;
+    private final Gson gson = new Gson();
+    private volatile boolean listening = true;
     public ClientAddressMapper nameAddressMap;
 
     /**
@@ -31,44 +38,72 @@ public class NetworkHandler extends Thread {
 
     @Override
     public void run() {
+        List<Packet> batch = new ArrayList<>(BATCH_SIZE);
+
         while (listening) {
-            Packet packet = null;
             try {
-                packet = socket.receive();
+                Packet packet = socket.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+
+                if (packet == null) {
+                    continue;
+                }
+
+                // Handle everything that arrived in the meantime in the same wakeup
+                batch.add(packet);
+                socket.drainTo(batch, BATCH_SIZE - 1);
             } catch (InterruptedException e) {
-                e.printStackTrace();
-                continue;
+                break;
             }
 
-            Message message = new Gson().fromJson(new String(packet.getData()), Message.class);
-
-            String packetData = new String(packet.getData());
-            switch (message.getType()) {
-                case NickChangeMessage.TYPE:
-                    NickChangeMessage nickChangeMessage = new Gson().fromJson(packetData, NickChangeMessage.class);
-                    state.addUser(nickChangeMessage, packet.getSourceAddress());
-                    break;
-                case TextMessage.TYPE:
-                    TextMessage textMessage = new Gson().fromJson(packetData, TextMessage.class);
-                    state.receiveMessage(textMessage, packet.getSourceAddress());
-                    break;
-                case LeaveMessage.TYPE:
-                    LeaveMessage leaveMessage = new Gson().fromJson(packetData, LeaveMessage.class);
-                    state.userLeft(leaveMessage);
-                    break;
-                case InviteMessage.TYPE:
-                    InviteMessage inviteMessage = new Gson().fromJson(packetData, InviteMessage.class);
-                    state.invite(inviteMessage);
-                    break;
-                case RequestNickMessage.TYPE:
-                    RequestNickMessage requestNickMessage = new Gson().fromJson(packetData, RequestNickMessage.class);
-                    state.requestNick(requestNickMessage, packet.getSourceAddress());
-                    break;
-                case LeaveConversationMessage.TYPE:
-                    LeaveConversationMessage leaveConversationMessage = new Gson().fromJson(packetData, LeaveConversationMessage.class);
-                    state.leaveConversation(leaveConversationMessage);
-                    break;
+            for (Packet packet : batch) {
+                handle(packet);
             }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Stop handling packets. Packets that are already taken from the socket are handled first.
+     */
+    public void shutdown() {
+        listening = false;
+        interrupt();
+    }
+
+    /**
+     * Parse a packet and pass the message to the application state
+     * @param packet Received packet
+     */
+    private void handle(Packet packet) {
+        Message message = gson.fromJson(new String(packet.getData()), Message.class);
+
+        String packetData = new String(packet.getData());
+        switch (message.getType()) {
+            case NickChangeMessage.TYPE:
+                NickChangeMessage nickChangeMessage = gson.fromJson(packetData, NickChangeMessage.class);
+                state.addUser(nickChangeMessage, packet.getSourceAddress());
+                break;
+            case TextMessage.TYPE:
+                TextMessage textMessage = gson.fromJson(packetData, TextMessage.class);
+                state.receiveMessage(textMessage, packet.getSourceAddress());
+                break;
+            case LeaveMessage.TYPE:
+                LeaveMessage leaveMessage = gson.fromJson(packetData, LeaveMessage.class);
+                state.userLeft(leaveMessage);
+                break;
+            case InviteMessage.TYPE:
+                InviteMessage inviteMessage = gson.fromJson(packetData, InviteMessage.class);
+                state.invite(inviteMessage);
+                break;
+            case RequestNickMessage.TYPE:
+                RequestNickMessage requestNickMessage = gson.fromJson(packetData, RequestNickMessage.class);
+                state.requestNick(requestNickMessage, packet.getSourceAddress());
+                break;
+            case LeaveConversationMessage.TYPE:
+                LeaveConversationMessage leaveConversationMessage = gson.fromJson(packetData, LeaveConversationMessage.class);
+                state.leaveConversation(leaveConversationMessage);
+                break;
         }
     }
 
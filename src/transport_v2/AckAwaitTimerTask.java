@@ -1,44 +1,109 @@
 package transport_v2;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.TimerTask;
 
-public class AckAwaitTimerTask extends TimerTask {
+public class AckAwaitTimerTask implements Runnable {
     private final SocketImpl socket;
     private final RawPacket packet;
-    private final HashMap<InetAddress, HashSet<Integer>> sentButNoAck;
+    private final Peer peer;
     private final int retries;
+    private final int attempt;
+    private final SendFuture future;
+    private final long sentTime = System.currentTimeMillis();
+    private volatile TimingWheel.Timeout timeout;
 
-    public AckAwaitTimerTask(SocketImpl socket, RawPacket packet, HashMap<InetAddress, HashSet<Integer>> sentButNoAck, int retries) {
+    /**
+     * @param future the future to complete when the packet is acknowledged, or null
+     */
+    public AckAwaitTimerTask(SocketImpl socket, RawPacket packet, Peer peer, int retries, int attempt, SendFuture future) {
         this.socket = socket;
         this.packet = packet;
-        this.sentButNoAck = sentButNoAck;
+        this.peer = peer;
         this.retries = retries;
+        this.attempt = attempt;
+        this.future = future;
     }
 
     @Override
     public void run() {
-        boolean acked;
-
-        synchronized(sentButNoAck) {
-            if(sentButNoAck.containsKey(packet.getDestinationIp())) {
-                acked = !sentButNoAck.get(packet.getDestinationIp()).contains(packet.getSequenceNumber());
-            } else {
-                acked = true;
-            }
-        }
-
-        if(!acked) {
+        if(peer.isAwaitingAck(this)) {
             RawPacket newPacket = packet.duplicate();
+            // A peer that advertised a closed window reads slowly but is still there, so probing it until the window
+            // opens again does not use up the retries. A peer that is gone stops announcing and is removed that way.
+            boolean probe = !packet.isSyn() && peer.getSendWindow().getPeerWindow() == 0;
 
             try {
-                socket.sendAndRetry(newPacket, retries - 1);
+                socket.sendAndRetry(newPacket, probe ? retries : retries - 1, future);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Retransmit without waiting for the timeout, because the receiver reported the packet missing. Does nothing if
+     * the packet was sent less than a round trip ago, as that copy may still arrive, or if the timeout already expired
+     * and the timing wheel retransmits it.
+     */
+    public void retransmitNow() {
+        if(System.currentTimeMillis() - sentTime < peer.getRttEstimator().getSmoothedRtt()) {
+            return;
+        }
+
+        TimingWheel.Timeout current = timeout;
+
+        // Only the one that takes the timeout off the wheel retransmits, the wheel or this call.
+        if(current != null && current.cancel()) {
+            run();
+        }
+    }
+
+    public void setTimeout(TimingWheel.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    public void cancel() {
+        if(timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Stop retransmitting because the packet was acknowledged.
+     */
+    public void acknowledge() {
+        cancel();
+
+        if(future != null) {
+            future.complete();
+        }
+    }
+
+    /**
+     * Stop retransmitting without an acknowledgement.
+     * @param cause why the packet will never be acknowledged
+     */
+    public void abort(IOException cause) {
+        cancel();
+
+        if(future != null) {
+            future.fail(cause);
+        }
+    }
+
+    public RawPacket getPacket() {
+        return packet;
+    }
+
+    public long getSentTime() {
+        return sentTime;
+    }
+
+    /**
+     * Whether the packet was sent before, in which case its acknowledgement cannot be used as an RTT sample.
+     * @return true if this is a retransmission
+     */
+    public boolean isRetransmission() {
+        return attempt > 0;
+    }
+}
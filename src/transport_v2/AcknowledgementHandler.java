@@ -1,38 +1,70 @@
 package transport_v2;
 
-import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
 
 public class AcknowledgementHandler implements PacketListener {
     private final SocketImpl socket;
-    private final HashMap<InetAddress, HashSet<Integer>> sentButNoAck;
-    private final HashMap<InetAddress, HashSet<Integer>> sentSynAckButNoAck;
+    private final PeerTable peers;
+    private final GroupSender groupSender;
 
-    public AcknowledgementHandler(SocketImpl socket, HashMap<InetAddress, HashSet<Integer>> sentButNoAck, HashMap<InetAddress, HashSet<Integer>> sentSynAckButNoAck) {
+    public AcknowledgementHandler(SocketImpl socket, PeerTable peers, GroupSender groupSender) {
         this.socket = socket;
-        this.sentButNoAck = sentButNoAck;
-        this.sentSynAckButNoAck = sentSynAckButNoAck;
+        this.peers = peers;
+        this.groupSender = groupSender;
     }
 
     @Override
     public void onPacketReceived(RawPacket packet) {
-        if(!packet.getDestinationIp().equals(socket.getIp()) || !packet.isAck()) {
+        if (packet.isGroup()) {
+            groupSender.onAcknowledgement(packet);
             return;
         }
 
-        synchronized(sentSynAckButNoAck) {
-            if(sentSynAckButNoAck.containsKey(packet.getSourceIp())) {
-                if(sentSynAckButNoAck.get(packet.getSourceIp()).remove(packet.getAcknowledgmentNumber())) {
-                    socket.addToNetwork(packet.getSourceIp());
-                }
+        Peer peer = peers.get(packet.getSource());
+
+        if(peer == null) {
+            return;
+        }
+
+        peer.getSendWindow().setPeerWindow(packet.getWindow());
+
+        ArrayList<AckAwaitTimerTask> acknowledged = new ArrayList<>();
+        peer.removeAcknowledged(packet, acknowledged);
+
+        long lastSentTime = -1;
+        boolean synAckAcknowledged = false;
+
+        for(AckAwaitTimerTask task : acknowledged) {
+            task.acknowledge();
+            peer.getSendWindow().remove(task.getPacket().getSequenceNumber());
+
+            if(!task.isRetransmission()) {
+                lastSentTime = Math.max(lastSentTime, task.getSentTime());
             }
+
+            if(task.getPacket().isSyn() && task.getPacket().isAck()) {
+                synAckAcknowledged = true;
+            }
+        }
+
+        // A cumulative acknowledgement can cover many packets, only the most recent one is a useful sample.
+        if(lastSentTime >= 0) {
+            peer.getRttEstimator().addSample(System.currentTimeMillis() - lastSentTime);
         }
 
-        synchronized(sentButNoAck) {
-            if(sentButNoAck.containsKey(packet.getSourceIp())) {
-                sentButNoAck.get(packet.getSourceIp()).remove(packet.getAcknowledgmentNumber());
+        if(packet.isNack()) {
+            ArrayList<AckAwaitTimerTask> missing = new ArrayList<>();
+            peer.getMissing(packet, missing);
+
+            for(AckAwaitTimerTask task : missing) {
+                task.retransmitNow();
             }
         }
+
+        socket.sendPending(peer);
+
+        if(synAckAcknowledged) {
+            socket.addToNetwork(peer.getIp());
+        }
     }
 }
@@ -1,30 +1,32 @@
 package transport_v2;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.util.HashMap;
 
 public class AnnounceHandler implements PacketListener {
     private final SocketImpl socket;
-    private final HashMap<InetAddress, Long> timeLastAnnounceReceived;
+    private final PeerTable peers;
+    private final MultipointRelays relays;
+    private final RoutingTable routes;
 
-    public AnnounceHandler(SocketImpl socket, HashMap<InetAddress, Long> timeLastAnnounceReceived) {
+    public AnnounceHandler(SocketImpl socket, PeerTable peers, MultipointRelays relays, RoutingTable routes) {
         this.socket = socket;
-        this.timeLastAnnounceReceived = timeLastAnnounceReceived;
+        this.peers = peers;
+        this.relays = relays;
+        this.routes = routes;
     }
 
     @Override
     public void onPacketReceived(RawPacket packet) {
-        if(!packet.isAnnounce()) {
-            return;
-        }
-
-        synchronized (timeLastAnnounceReceived) {
-            timeLastAnnounceReceived.put(packet.getSourceIp(), System.currentTimeMillis());
-        }
+        Peer peer = peers.getOrCreate(packet.getSourceIp());
+        peer.setTimeLastAnnounceReceived(System.currentTimeMillis());
+        peers.setDistance(peer, packet.getHopsTravelled());
+        relays.onAnnounce(peer, packet);
+        routes.learn(peer, packet);
 
         try {
-            socket.sendAndAwaitAck(RawPacket.newSynchronization(socket.newSequenceNumber(packet.getSourceIp()), socket.getIp(), packet.getSourceIp()));
+            RawPacket syn = RawPacket.newSynchronization(socket.newSequenceNumber(packet.getSourceIp()), socket.getIp(), packet.getSourceIp());
+            socket.setHandshakeOptions(syn);
+            socket.sendAndAwaitAck(syn);
         } catch(IOException e) {
             e.printStackTrace();
         }
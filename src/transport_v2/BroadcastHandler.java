@@ -4,19 +4,51 @@ import java.io.IOException;
 
 public class BroadcastHandler implements PacketListener {
     private SocketImpl socket;
+    private final MultipointRelays relays;
+    private final RoutingTable routes;
+    private final DuplicateFilter relayed;
 
-    public BroadcastHandler(SocketImpl socket) {
+    /**
+     * @param relayed the packets that were relayed already, which is separate from the packets that were received, as
+     *                a packet may first arrive from a neighbour that did not select this node as its relay
+     */
+    public BroadcastHandler(SocketImpl socket, MultipointRelays relays, RoutingTable routes, DuplicateFilter relayed) {
         this.socket = socket;
+        this.relays = relays;
+        this.routes = routes;
+        this.relayed = relayed;
     }
 
     @Override
     public void onPacketReceived(RawPacket packet) {
-        if(!packet.getDestinationIp().equals(socket.getIp())) {
-            try {
-                socket.send(packet);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        if (packet.getHopLimit() <= 1) {
+            return;
+        }
+
+        // A routed packet is only relayed by its next hop, a flooded one by the relays chosen by its previous hop.
+        if (packet.getNextHop() != RawPacket.BROADCAST ? packet.getNextHop() != socket.getAddress() : !relays.shouldRelay(packet)) {
+            return;
+        }
+
+        // Every copy gets this far, but each packet is relayed only once.
+        if (relayed.isDuplicate(packet.getSource(), packet.getNonce())) {
+            return;
+        }
+
+        // The receiver thread copied the packet for its worker, and relay listeners run after the local ones, so the
+        // packet is ours to change and queue on the sender thread without another copy.
+        packet.decrementHopLimit();
+        packet.setPreviousHop(socket.getAddress());
+
+        if (packet.getDestination() != RawPacket.BROADCAST) {
+            packet.setNextHop(routes.getNextHop(packet.getDestination()));
+        }
+
+        try {
+            socket.send(packet);
+        } catch (IOException e) {
+            // The source used up its share of the relay queue. The drop is counted, and the source retransmits if the
+            // packet needs to arrive.
         }
     }
 }
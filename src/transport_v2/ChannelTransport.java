@@ -0,0 +1,132 @@
+package transport_v2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+
+/**
+ * A transport on a non-blocking {@link DatagramChannel}.
+ *
+ * The receiving thread reads datagrams into a direct buffer until the channel is empty, and only then waits on the
+ * selector, so a burst of datagrams costs a single wakeup. Senders write directly to the channel. When the socket
+ * buffer is full the datagram is queued, and the receiving thread sends it once the selector reports the channel as
+ * writable, so senders never block on the network.
+ */
+public class ChannelTransport implements Transport {
+    private static final int RECEIVE_BATCH = 64;
+    private static final int MAX_PENDING_SENDS = 1024;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final InetSocketAddress destination;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(1 << 16);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(1 << 16);
+    private final ArrayDeque<ByteBuffer> pendingSends = new ArrayDeque<>();
+
+    private int receivedSinceFlush = 0;
+    private long droppedSends = 0;
+
+    public ChannelTransport(InetAddress group, int port, NetworkInterface netIF) throws IOException {
+        this.destination = new InetSocketAddress(group, port);
+
+        channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(new InetSocketAddress(port));
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, netIF);
+        channel.join(group, netIF);
+        channel.configureBlocking(false);
+
+        selector = Selector.open();
+        key = channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void send(RawPacket packet) throws IOException {
+        synchronized (pendingSends) {
+            if (pendingSends.isEmpty()) {
+                sendBuffer.clear();
+                packet.writeTo(sendBuffer);
+                sendBuffer.flip();
+
+                if (channel.send(sendBuffer, destination) > 0) {
+                    return;
+                }
+            }
+
+            if (pendingSends.size() >= MAX_PENDING_SENDS) {
+                droppedSends++;
+                return;
+            }
+
+            ByteBuffer copy = ByteBuffer.allocate(packet.getLength());
+            packet.writeTo(copy);
+            copy.flip();
+            pendingSends.add(copy);
+        }
+
+        selector.wakeup();
+    }
+
+    @Override
+    public boolean receive(RawPacket packet) throws IOException {
+        while (true) {
+            // After a batch of datagrams the queued sends get a turn, so a steady stream of incoming datagrams cannot
+            // hold them up.
+            boolean batchDone = receivedSinceFlush >= RECEIVE_BATCH;
+
+            if (!batchDone) {
+                receiveBuffer.clear();
+
+                if (channel.receive(receiveBuffer) != null) {
+                    receivedSinceFlush++;
+                    return packet.wrap(receiveBuffer, 0, receiveBuffer.position());
+                }
+            }
+
+            receivedSinceFlush = 0;
+            flushPendingSends();
+
+            if (!batchDone) {
+                selector.select();
+                selector.selectedKeys().clear();
+            }
+        }
+    }
+
+    /**
+     * The number of datagrams dropped because too many sends were waiting for the channel.
+     */
+    public long getDroppedSends() {
+        synchronized (pendingSends) {
+            return droppedSends;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        channel.close();
+    }
+
+    /**
+     * Send queued datagrams until the channel is full, and update whether the selector waits for writability.
+     */
+    private void flushPendingSends() throws IOException {
+        synchronized (pendingSends) {
+            while (!pendingSends.isEmpty() && channel.send(pendingSends.peek(), destination) > 0) {
+                pendingSends.poll();
+            }
+
+            key.interestOps(pendingSends.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+}
@@ -2,79 +2,260 @@ package transport_v2;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DataHandler implements PacketListener {
     private static final long MAX_DIFFERENCE = 5;
+    // How long a receive worker waits for room in the queue with OverflowPolicy.BLOCK, holding up the other peers it
+    // handles.
+    private static final long BLOCK_TIMEOUT = 100;
     private final SocketImpl socket;
-    private final LinkedBlockingQueue<Packet> queue;
-    private HashMap<InetAddress, HashSet<Integer>> sentButNoAck;
-    private final HashMap<InetAddress, Integer> lastInOrderSequenceNumber = new HashMap<>();
-    private final HashMap<InetAddress, SortedSet<RawPacket>> outOfOrderPackets = new HashMap<>();
+    private final BlockingQueue<Packet> queue;
+    private final PeerTable peers;
+    private final DelayedAcknowledger acknowledger;
+    private final DelayedAcknowledger groupAcknowledger;
+    private final int reorderBufferSize;
+    // Packets from one source are always handled by the same receive worker, but different sources are handled
+    // concurrently, so the map itself must be thread safe.
+    private final ConcurrentHashMap<InetAddress, ReorderBuffer> reorderBuffers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetAddress, ReorderBuffer> groupBuffers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetAddress, FragmentAssembler> assemblers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetAddress, FragmentAssembler> groupAssemblers = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private volatile OverflowPolicy overflowPolicy;
+    private volatile ReceiveListener receiveListener;
 
-    public DataHandler(SocketImpl socket, LinkedBlockingQueue<Packet> queue, HashMap<InetAddress, HashSet<Integer>> sentButNoAck) {
+    /**
+     * @param groupAcknowledger the acknowledger for group packets
+     * @param reorderBufferSize how many sequence numbers beyond the last in order packet are buffered per source
+     * @param overflowPolicy what to do with packets that do not fit in the queue
+     */
+    public DataHandler(SocketImpl socket, BlockingQueue<Packet> queue, PeerTable peers, DelayedAcknowledger acknowledger,
+                       DelayedAcknowledger groupAcknowledger, int reorderBufferSize, OverflowPolicy overflowPolicy) {
         this.socket = socket;
         this.queue = queue;
-        this.sentButNoAck = sentButNoAck;
+        this.peers = peers;
+        this.acknowledger = acknowledger;
+        this.groupAcknowledger = groupAcknowledger;
+        this.reorderBufferSize = reorderBufferSize;
+        this.overflowPolicy = overflowPolicy;
     }
 
     @Override
     public void onPacketReceived(RawPacket packet) {
-        if(!packet.getDestinationIp().equals(socket.getIp())) {
+        if (packet.isGroup()) {
+            onGroupPacketReceived(packet);
             return;
         }
 
-        if (!lastInOrderSequenceNumber.containsKey(packet.getSourceIp()) || !outOfOrderPackets.containsKey(packet.getSourceIp())) {
+        ReorderBuffer buffer = reorderBuffers.get(packet.getSourceIp());
+
+        if (buffer == null) {
             if (packet.isSyn()) {
-                lastInOrderSequenceNumber.put(packet.getSourceIp(), packet.getSequenceNumber());
-                outOfOrderPackets.put(packet.getSourceIp(), new TreeSet<RawPacket>());
+                reorderBuffers.put(packet.getSourceIp(), new ReorderBuffer(reorderBufferSize, packet.getSequenceNumber()));
+                assemblers.put(packet.getSourceIp(), new FragmentAssembler(SocketImpl.MAX_MESSAGE_SIZE));
             }
 
             return; // Drop data until SYN is received
         }
 
+        boolean acknowledge = false;
+        boolean gap = false;
+
         if(packet.isSyn()) {
             // If the sequence number of the SYN is lower than the last in order sequence number or
             //  there is a packet received out of order with a sequence number more than MAX_DIFFERENCE higher
             //  then the other client is suspected of having restarted.
-            if (Util.differenceWithWrapAround(packet.getSequenceNumber(), lastInOrderSequenceNumber.get(packet.getSourceIp())) < 0 ||
-                    !outOfOrderPackets.get(packet.getSourceIp()).tailSet(packet).isEmpty() &&
-                            Util.differenceWithWrapAround(packet.getSequenceNumber(), outOfOrderPackets.get(packet.getSourceIp()).last().getSequenceNumber()) < -MAX_DIFFERENCE) {
-                lastInOrderSequenceNumber.put(packet.getSourceIp(), packet.getSequenceNumber());
-                outOfOrderPackets.put(packet.getSourceIp(), new TreeSet<RawPacket>());
-                sentButNoAck.put(packet.getSourceIp(), new HashSet<Integer>());
-            } else if (Util.differenceWithWrapAround(packet.getSequenceNumber(), lastInOrderSequenceNumber.get(packet.getSourceIp())) > 0) {
-                outOfOrderPackets.get(packet.getSourceIp()).add(packet);
+            if (Util.differenceWithWrapAround(packet.getSequenceNumber(), buffer.getLastInOrderSequenceNumber()) < 0 ||
+                    !buffer.isEmpty() &&
+                            Util.differenceWithWrapAround(packet.getSequenceNumber(), buffer.getHighestSequenceNumber()) < -MAX_DIFFERENCE) {
+                buffer = new ReorderBuffer(reorderBufferSize, packet.getSequenceNumber());
+                reorderBuffers.put(packet.getSourceIp(), buffer);
+                assemblers.get(packet.getSourceIp()).clear();
+                Peer peer = peers.get(packet.getSource());
+
+                if (peer != null) {
+                    // The SYN/ACK that answers this SYN was already sent and must stay in the retransmission queue.
+                    peer.cancelData(new IOException("Destination restarted"));
+                }
+            } else {
+                add(buffer, packet);
             }
         } else if (!packet.isAck() && !packet.isAnnounce()) {
             // i.e. it is a data packet
-            if (Util.differenceWithWrapAround(packet.getSequenceNumber(), lastInOrderSequenceNumber.get(packet.getSourceIp())) > 0) {
-                outOfOrderPackets.get(packet.getSourceIp()).add(packet);
-            }
+            gap = opensGap(buffer, packet);
+            add(buffer, packet);
+            acknowledge = true;
+        }
 
-            try {
-                socket.send(RawPacket.newAcknowledgement(packet.getSequenceNumber(), socket.getIp(), packet.getSourceIp()));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        drain(buffer, assemblers.get(packet.getSourceIp()));
+
+        if (gap) {
+            acknowledger.acknowledgeMissing(packet.getSourceIp(), buffer.getLastInOrderSequenceNumber(),
+                    buffer.getSelectiveBits(RawPacket.SACK_BITS));
+        } else if (acknowledge) {
+            acknowledger.acknowledge(packet.getSourceIp(), buffer.getLastInOrderSequenceNumber(),
+                    buffer.getSelectiveBits(RawPacket.SACK_BITS));
         }
+    }
+
+    /**
+     * Handle a broadcast that was sent to the whole group. Group packets need no handshake: the acknowledgment number
+     * tells where the source's group stream starts.
+     */
+    private void onGroupPacketReceived(RawPacket packet) {
+        ReorderBuffer buffer = groupBuffers.get(packet.getSourceIp());
+        int lastDone = packet.getAcknowledgmentNumber() - 1;
+        long difference = buffer == null ? 0 : Util.differenceWithWrapAround(lastDone, buffer.getLastInOrderSequenceNumber());
+
+        // Start over when this client has no state yet, or when the stream of the source is too far from this
+        // client's, because it restarted with another sequence number or this client missed a lot.
+        if (buffer == null || difference > buffer.getCapacity() || difference < -reorderBufferSize) {
+            buffer = new ReorderBuffer(reorderBufferSize, lastDone);
+            groupBuffers.put(packet.getSourceIp(), buffer);
+            groupAssemblers.put(packet.getSourceIp(), new FragmentAssembler(SocketImpl.MAX_MESSAGE_SIZE));
+        } else if (difference > 0) {
+            // The source gave up on packets this client missed. The packets buffered after them were acknowledged
+            // already, so they are kept; the message that was being assembled is incomplete.
+            dropped.addAndGet(buffer.skipTo(lastDone));
+            groupAssemblers.get(packet.getSourceIp()).clear();
+        }
+
+        boolean gap = opensGap(buffer, packet);
+        add(buffer, packet);
+        drain(buffer, groupAssemblers.get(packet.getSourceIp()));
 
-        Iterator<RawPacket> it = outOfOrderPackets.get(packet.getSourceIp()).iterator();
-        while (it.hasNext()) {
-            RawPacket cur = it.next();
-            if (cur.getSequenceNumber() == lastInOrderSequenceNumber.get(packet.getSourceIp()) +1) {
-                if (!cur.isSyn()) {
-                    queue.add(new PacketImpl(cur));
+        if (gap) {
+            groupAcknowledger.acknowledgeMissing(packet.getSourceIp(), buffer.getLastInOrderSequenceNumber(),
+                    buffer.getSelectiveBits(RawPacket.SACK_BITS));
+        } else {
+            groupAcknowledger.acknowledge(packet.getSourceIp(), buffer.getLastInOrderSequenceNumber(),
+                    buffer.getSelectiveBits(RawPacket.SACK_BITS));
+        }
+    }
+
+    /**
+     * Whether the packet is ahead of every packet received from its source so far, with sequence numbers missing in
+     * between. Each gap is reported once, when it appears; if that report is lost the retransmission timeout of the
+     * source still recovers the packets.
+     */
+    private static boolean opensGap(ReorderBuffer buffer, RawPacket packet) {
+        int expected = (buffer.isEmpty() ? buffer.getLastInOrderSequenceNumber() : buffer.getHighestSequenceNumber()) + 1;
+        return Util.differenceWithWrapAround(packet.getSequenceNumber(), expected) > 0;
+    }
+
+    /**
+     * Deliver the packets that are in order. A packet that does not fit in the queue stays in the reorder buffer and
+     * is not acknowledged. The acknowledgements then advertise a closed window, so the source keeps probing without
+     * giving up on this client, and the packet is delivered on a probe once the application has made room.
+     *
+     * Fragments are taken from the reorder buffer as soon as they are in order, so each is acknowledged on its own,
+     * and the message is delivered when its last fragment is in order.
+     */
+    private void drain(ReorderBuffer buffer, FragmentAssembler assembler) {
+        RawPacket next;
+        while ((next = buffer.peek()) != null) {
+            if (next.hasMoreFragments()) {
+                if (!assembler.add(next)) {
+                    dropped.incrementAndGet();
                 }
-                lastInOrderSequenceNumber.put(packet.getSourceIp(), cur.getSequenceNumber());
-                it.remove();
-            } else if (Util.differenceWithWrapAround(cur.getSequenceNumber(), lastInOrderSequenceNumber.get(packet.getSourceIp())) <= 0) {
-                System.out.println("Dit hoort niet");
-                it.remove();
-            } else {
-                break;
+            } else if (!next.isSyn()) {
+                byte[] data = assembler.assemble(next);
+
+                if (data != null && next.isCompressed()) {
+                    data = PayloadCompressor.decompress(data, SocketImpl.MAX_MESSAGE_SIZE);
+                }
+
+                if (data == null) {
+                    dropped.incrementAndGet();
+                } else if (!deliver(new PacketImpl(data, next.getSourceIp(), next.getDestinationIp()))) {
+                    break;
+                }
+
+                assembler.clear();
             }
+
+            buffer.poll();
+        }
+    }
+
+    /**
+     * The number of packets dropped because they were too far ahead of the last in order packet of their source, or
+     * because they were part of a message that was too large to assemble or could not be decompressed, or because the
+     * source of a group stream gave up on the packets before them.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * The number of in order packets that did not fit in the receive queue.
+     */
+    public long getOverflows() {
+        return overflows.get();
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Hand packets to the listener instead of the queue.
+     * @param receiveListener the listener, or null to use the queue
+     */
+    public void setReceiveListener(ReceiveListener receiveListener) {
+        this.receiveListener = receiveListener;
+    }
+
+    private boolean deliver(Packet packet) {
+        ReceiveListener listener = receiveListener;
+
+        if (listener != null) {
+            listener.onReceive(packet);
+            return true;
+        }
+
+        if (queue.offer(packet)) {
+            return true;
+        }
+
+        overflows.incrementAndGet();
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    return queue.offer(packet, BLOCK_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case DROP_OLDEST:
+                do {
+                    queue.poll();
+                } while (!queue.offer(packet));
+
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void add(ReorderBuffer buffer, RawPacket packet) {
+        if (Util.differenceWithWrapAround(packet.getSequenceNumber(), buffer.getLastInOrderSequenceNumber()) <= 0) {
+            return;
+        }
+
+        // The receiver thread already copied the packet for this worker, so it can be kept as it is.
+        if (!buffer.add(packet)) {
+            dropped.incrementAndGet();
         }
     }
-}
\ No newline at end of file
+}
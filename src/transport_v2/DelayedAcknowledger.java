@@ -0,0 +1,170 @@
+package transport_v2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashMap;
+
+/**
+ * Holds back acknowledgements for a short time, so they can ride along on the next data packet to the same peer
+ * instead of being sent as a packet of their own.
+ *
+ * A bare acknowledgement is only sent when the hold time expires or when too many received packets are waiting to
+ * be acknowledged. A delay of 0 acknowledges every packet immediately.
+ *
+ * Gaps are reported right away with a negative acknowledgement, so the source can retransmit after a round trip
+ * instead of a retransmission timeout.
+ *
+ * A separate instance acknowledges group packets, which are never piggybacked.
+ */
+public class DelayedAcknowledger {
+    private static final int MAX_UNACKNOWLEDGED_PACKETS = 2;
+
+    private final SocketImpl socket;
+    private final TimingWheel timer;
+    private final boolean group;
+    private final HashMap<InetAddress, PendingAcknowledgement> pending = new HashMap<>();
+    private volatile long delay;
+
+    public DelayedAcknowledger(SocketImpl socket, TimingWheel timer, long delay) {
+        this(socket, timer, delay, false);
+    }
+
+    /**
+     * @param group whether to send group acknowledgements
+     */
+    public DelayedAcknowledger(SocketImpl socket, TimingWheel timer, long delay, boolean group) {
+        this.socket = socket;
+        this.timer = timer;
+        this.delay = delay;
+        this.group = group;
+    }
+
+    /**
+     * Acknowledge received packets from the source, replacing any acknowledgement that is still held back for it.
+     * @param source the peer to acknowledge
+     * @param cumulative the last sequence number received in order
+     * @param selective the selective acknowledgments after the cumulative one
+     */
+    public void acknowledge(InetAddress source, int cumulative, int selective) {
+        PendingAcknowledgement due = null;
+
+        synchronized (pending) {
+            PendingAcknowledgement acknowledgement = pending.get(source);
+
+            if (acknowledgement == null) {
+                acknowledgement = new PendingAcknowledgement(source);
+                pending.put(source, acknowledgement);
+
+                if (delay > 0) {
+                    acknowledgement.timeout = timer.schedule(acknowledgement, delay);
+                }
+            }
+
+            acknowledgement.cumulative = cumulative;
+            acknowledgement.selective = selective;
+            acknowledgement.count++;
+
+            if (delay <= 0 || acknowledgement.count >= MAX_UNACKNOWLEDGED_PACKETS) {
+                due = take(source);
+            }
+        }
+
+        if (due != null) {
+            due.send();
+        }
+    }
+
+    /**
+     * Report a gap in the packets from the source immediately, replacing any acknowledgement that is held back for it.
+     * @param source the peer to acknowledge
+     * @param cumulative the last sequence number received in order
+     * @param selective the selective acknowledgments after the cumulative one
+     */
+    public void acknowledgeMissing(InetAddress source, int cumulative, int selective) {
+        take(source);
+
+        try {
+            socket.send(RawPacket.newNegativeAcknowledgement(cumulative, selective, group, socket.getIp(), source));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Remove the acknowledgement that is held back for the destination, to piggyback it on an outgoing packet.
+     * @param destination the peer
+     * @return the pending acknowledgement, or null if there is none
+     */
+    public PendingAcknowledgement take(InetAddress destination) {
+        synchronized (pending) {
+            PendingAcknowledgement acknowledgement = pending.remove(destination);
+
+            if (acknowledgement != null && acknowledgement.timeout != null) {
+                acknowledgement.timeout.cancel();
+            }
+
+            return acknowledgement;
+        }
+    }
+
+    public void remove(InetAddress peer) {
+        take(peer);
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public class PendingAcknowledgement implements Runnable {
+        private final InetAddress peer;
+        private int cumulative;
+        private int selective;
+        private int count = 0;
+        private TimingWheel.Timeout timeout;
+
+        private PendingAcknowledgement(InetAddress peer) {
+            this.peer = peer;
+        }
+
+        public int getCumulative() {
+            return cumulative;
+        }
+
+        public int getSelective() {
+            return selective;
+        }
+
+        @Override
+        public void run() {
+            boolean due;
+
+            synchronized (pending) {
+                due = pending.get(peer) == this;
+
+                if (due) {
+                    pending.remove(peer);
+                }
+            }
+
+            if (due) {
+                send();
+            }
+        }
+
+        private void send() {
+            try {
+                if (group) {
+                    socket.send(RawPacket.newGroupAcknowledgement(cumulative, selective, socket.getIp(), peer));
+                } else {
+                    socket.send(RawPacket.newSelectiveAcknowledgement(cumulative, selective, socket.getIp(), peer));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package transport_v2;
+
+/**
+ * Remembers which packets were seen recently, identified by their source address and nonce, in a fixed amount of
+ * memory.
+ *
+ * Entries live in an open addressing table of primitive arrays. A lookup probes a few slots after the slot the key
+ * hashes to. Entries older than the expiry time count as free, and when all probed slots are taken the oldest one is
+ * evicted, so the filter never grows and stale entries are reused without a separate cleanup.
+ */
+public class DuplicateFilter {
+    private static final int ENTRY_SIZE = 16;
+    private static final int PROBE_LENGTH = 8;
+
+    private final long[] keys;
+    private final long[] times;
+    private final int mask;
+    private final long expiry;
+
+    private long hits = 0;
+    private long evictions = 0;
+
+    /**
+     * @param memoryBudget the number of bytes to use for entries, rounded down to a power of two number of entries
+     * @param expiry how long a packet is remembered in milliseconds
+     */
+    public DuplicateFilter(int memoryBudget, long expiry) {
+        int capacity = Integer.highestOneBit(Math.max(memoryBudget / ENTRY_SIZE, PROBE_LENGTH));
+
+        this.keys = new long[capacity];
+        this.times = new long[capacity];
+        this.mask = capacity - 1;
+        this.expiry = expiry;
+    }
+
+    /**
+     * Check whether the packet was seen before and remember it.
+     * @param source the source address of the packet
+     * @param nonce the nonce of the packet
+     * @return true if the packet is a duplicate
+     */
+    public synchronized boolean isDuplicate(int source, int nonce) {
+        long key = ((long) source << 32) | (nonce & 0xFFFFFFFFL);
+        long now = System.currentTimeMillis();
+        int start = hash(key);
+        int free = -1;
+        int oldest = start;
+
+        for (int i = 0; i < PROBE_LENGTH; i++) {
+            int slot = (start + i) & mask;
+            boolean live = times[slot] != 0 && now - times[slot] <= expiry;
+
+            if (live && keys[slot] == key) {
+                hits++;
+                return true;
+            }
+
+            if (!live && free < 0) {
+                free = slot;
+            }
+
+            if (times[slot] < times[oldest]) {
+                oldest = slot;
+            }
+        }
+
+        if (free < 0) {
+            free = oldest;
+            evictions++;
+        }
+
+        keys[free] = key;
+        times[free] = now;
+        return false;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
@@ -0,0 +1,172 @@
+package transport_v2;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Queues packets per source address and serves the sources by deficit round robin, so every source gets an equal
+ * share of the bytes sent no matter how many packets it queues.
+ *
+ * Sources with queued packets take turns. At the start of its turn a source is credited with the quantum, and it may
+ * send packets for as long as its credit covers them; whatever is left carries over to its next turn. Every source can
+ * queue at most the byte budget, packets beyond that are dropped and counted against the source.
+ *
+ * A source is only tracked while it has packets queued, so the sources that come and go on a busy mesh do not pile up.
+ * Drop counts are kept apart from the queues, for a bounded number of sources that dropped most recently.
+ *
+ * Not thread safe, the {@link SenderThread} only uses it under its own lock.
+ */
+public class FairQueue {
+    private static final int MAX_DROP_SOURCES = 256;
+
+    private final int quantum;
+    private final IntHashMap<Flow> flows = new IntHashMap<>();
+    private final ArrayDeque<Flow> active = new ArrayDeque<>();
+    // Only touched when a packet is dropped, so boxing the source does not cost anything on the normal path.
+    private final LinkedHashMap<Integer, long[]> droppedBySource = new LinkedHashMap<Integer, long[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, long[]> eldest) {
+            return size() > MAX_DROP_SOURCES;
+        }
+    };
+    private int byteBudget;
+    private int size = 0;
+    private long dropped = 0;
+
+    /**
+     * @param quantum the number of bytes a source is credited with per turn
+     * @param byteBudget the number of bytes each source may have queued
+     */
+    public FairQueue(int quantum, int byteBudget) {
+        this.quantum = quantum;
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Queue a packet behind the other packets from its source.
+     * @param packet the packet
+     * @return false if the source's budget is used up and the packet was dropped
+     */
+    public boolean add(RawPacket packet) {
+        return add(packet, true);
+    }
+
+    /**
+     * Queue a packet behind the other packets from its source.
+     * @param packet the packet
+     * @param budgeted false to queue the packet even if its source used up its budget, for packets whose number is
+     *                 limited in another way; they still count towards the budget and take their turns as usual
+     * @return false if the source's budget is used up and the packet was dropped
+     */
+    public boolean add(RawPacket packet, boolean budgeted) {
+        Flow flow = flows.get(packet.getSource());
+        int bytes = flow == null ? 0 : flow.bytes;
+
+        if (budgeted && bytes + packet.getLength() > byteBudget) {
+            long[] count = droppedBySource.get(packet.getSource());
+
+            if (count == null) {
+                count = new long[1];
+                droppedBySource.put(packet.getSource(), count);
+            }
+
+            count[0]++;
+            dropped++;
+            return false;
+        }
+
+        if (flow == null) {
+            flow = new Flow(packet.getSource());
+            flows.put(packet.getSource(), flow);
+            active.add(flow);
+        }
+
+        flow.packets.add(packet);
+        flow.bytes += packet.getLength();
+        size++;
+        return true;
+    }
+
+    /**
+     * Take the next packet in deficit round robin order.
+     * @return the packet, or null if nothing is queued
+     */
+    public RawPacket poll() {
+        while (!active.isEmpty()) {
+            Flow flow = active.peek();
+
+            if (!flow.inTurn) {
+                flow.deficit += quantum;
+                flow.inTurn = true;
+            }
+
+            RawPacket packet = flow.packets.peek();
+
+            if (packet.getLength() <= flow.deficit) {
+                flow.packets.poll();
+                flow.bytes -= packet.getLength();
+                flow.deficit -= packet.getLength();
+                size--;
+
+                if (flow.packets.isEmpty()) {
+                    // A source that has nothing to send does not save up credit, so there is nothing left to remember.
+                    active.poll();
+                    flows.remove(flow.source);
+                }
+
+                return packet;
+            }
+
+            flow.inTurn = false;
+            active.add(active.poll());
+        }
+
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The number of packets dropped because their source exceeded its budget.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @param source the source address
+     * @return the number of packets from the source that were dropped, or 0 if it is not among the sources that
+     *         dropped packets most recently
+     */
+    public long getDropped(int source) {
+        long[] count = droppedBySource.get(source);
+        return count == null ? 0 : count[0];
+    }
+
+    public int getByteBudget() {
+        return byteBudget;
+    }
+
+    public void setByteBudget(int byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    private static class Flow {
+        private final int source;
+        private final ArrayDeque<RawPacket> packets = new ArrayDeque<>();
+        private int bytes = 0;
+        private int deficit = 0;
+        private boolean inTurn = false;
+
+        private Flow(int source) {
+            this.source = source;
+        }
+    }
+}
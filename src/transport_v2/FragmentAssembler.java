@@ -0,0 +1,72 @@
+package transport_v2;
+
+import java.util.ArrayList;
+
+/**
+ * Collects the fragments of a message from one source, which arrive in order from its reorder buffer, until the last
+ * fragment completes the message.
+ *
+ * Not thread safe, all packets from one source are handled by the same receive worker.
+ */
+public class FragmentAssembler {
+    private final int maxSize;
+    private final ArrayList<RawPacket> fragments = new ArrayList<>();
+    private int size = 0;
+    private boolean tooLarge = false;
+
+    /**
+     * @param maxSize the largest message that is assembled, the fragments of larger messages are dropped
+     */
+    public FragmentAssembler(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Add a fragment that is followed by more fragments of the same message.
+     * @return false if the message grew too large, its fragments are then dropped up to and including the last one
+     */
+    public boolean add(RawPacket fragment) {
+        if (tooLarge || size + fragment.getDataLength() > maxSize) {
+            clear();
+            tooLarge = true;
+            return false;
+        }
+
+        fragments.add(fragment);
+        size += fragment.getDataLength();
+        return true;
+    }
+
+    /**
+     * The data of the message that the packet completes, without forgetting the fragments, so delivery can be retried.
+     * @param last the last fragment, or a packet that is not part of a fragmented message
+     * @return the data, or null if the message was too large
+     */
+    public byte[] assemble(RawPacket last) {
+        if (tooLarge || size + last.getDataLength() > maxSize) {
+            return null;
+        } else if (fragments.isEmpty()) {
+            return last.getData();
+        }
+
+        byte[] data = new byte[size + last.getDataLength()];
+        int position = 0;
+
+        for (RawPacket fragment : fragments) {
+            fragment.getPayload().get(data, position, fragment.getDataLength());
+            position += fragment.getDataLength();
+        }
+
+        last.getPayload().get(data, position, last.getDataLength());
+        return data;
+    }
+
+    /**
+     * Forget the fragments of the message, after it was delivered or dropped.
+     */
+    public void clear() {
+        fragments.clear();
+        size = 0;
+        tooLarge = false;
+    }
+}
@@ -0,0 +1,96 @@
+package transport_v2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses the size of the fragments that large messages to a single peer are split into, from the loss rate observed
+ * on the packets sent to it.
+ *
+ * Every round of transmissions the share that were retransmissions is measured. A lossy round halves the fragment
+ * size, so a loss costs less to repair, and a clean round grows it again step by step, so fewer headers are sent. The
+ * size never exceeds what fits in a single Ethernet frame, so the IP layer does not fragment the packets itself.
+ */
+public class FragmentSizer {
+    /**
+     * The largest fragment that fits in a 1500 byte frame together with the IPv4, UDP and packet headers.
+     */
+    public static final int MAX_FRAGMENT_SIZE = 1500 - 20 - 8 - RawPacket.MIN_SIZE;
+    public static final int MIN_FRAGMENT_SIZE = 256;
+
+    private static final int ROUND_SIZE = 16;
+    private static final double HIGH_LOSS = 0.1;
+    private static final double LOW_LOSS = 0.02;
+    private static final int GROWTH_STEP = 128;
+
+    private int fragmentSize = MAX_FRAGMENT_SIZE;
+    private int transmissions = 0;
+    private int retransmissions = 0;
+
+    /**
+     * Count a transmission of a packet to the peer, if it tells something about the loss of fragments: it must be a
+     * fragment, or a data packet of at least half the fragment size. Handshakes and small messages are lost less often
+     * than full fragments, so counting them would keep the fragments too large.
+     * @param retransmission whether the packet was sent before
+     */
+    public synchronized void onTransmission(RawPacket packet, boolean retransmission) {
+        if (packet.isSyn() || packet.isAck() || packet.isAnnounce()) {
+            return;
+        }
+
+        if (packet.hasMoreFragments() || packet.getDataLength() >= fragmentSize / 2) {
+            onTransmission(retransmission);
+        }
+    }
+
+    /**
+     * Count a transmission of a data packet to the peer.
+     * @param retransmission whether the packet was sent before
+     */
+    public synchronized void onTransmission(boolean retransmission) {
+        transmissions++;
+
+        if (retransmission) {
+            retransmissions++;
+        }
+
+        if (transmissions < ROUND_SIZE) {
+            return;
+        }
+
+        double loss = (double) retransmissions / transmissions;
+
+        if (loss > HIGH_LOSS) {
+            fragmentSize = Math.max(fragmentSize / 2, MIN_FRAGMENT_SIZE);
+        } else if (loss < LOW_LOSS) {
+            fragmentSize = Math.min(fragmentSize + GROWTH_STEP, MAX_FRAGMENT_SIZE);
+        }
+
+        transmissions = 0;
+        retransmissions = 0;
+    }
+
+    public synchronized int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * Split data into fragments of at most the given size.
+     * @return the fragments, or a list with only the data itself if it fits in one
+     */
+    public static List<byte[]> split(byte[] data, int fragmentSize) {
+        List<byte[]> fragments = new ArrayList<>();
+
+        if (data.length <= fragmentSize) {
+            fragments.add(data);
+            return fragments;
+        }
+
+        for (int start = 0; start < data.length; start += fragmentSize) {
+            fragments.add(Arrays.copyOfRange(data, start, Math.min(start + fragmentSize, data.length)));
+        }
+
+        return fragments;
+    }
+}
@@ -0,0 +1,468 @@
+package transport_v2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends broadcasts reliably as a single datagram to the whole group, instead of a copy per peer.
+ *
+ * Group packets have a sequence number space of their own. Every group packet remembers which peers were in the
+ * network when it was sent, and is done when all of them acknowledged it. Receivers acknowledge cumulatively with a
+ * bitmap, held back like unicast acknowledgements, so a burst of broadcasts costs each receiver a single
+ * acknowledgement. On a timeout only the packets that are still missing are sent again: to the group if many receivers
+ * miss them, or addressed to the receivers that miss them if only a few do.
+ *
+ * A receiver that finds a gap reports it with a negative acknowledgement, and the packets it misses are sent again
+ * right away instead of after the timeout.
+ *
+ * The acknowledgement number of a group data packet is the oldest group sequence number that is not done yet.
+ * Receivers that have no state for the sender start there, and receivers that fell behind skip to it.
+ */
+public class GroupSender {
+    // Up to this many missing receivers get a copy addressed to them, more get a copy sent to the group.
+    private static final int MAX_ADDRESSED_RETRANSMISSIONS = 2;
+
+    private final SocketImpl socket;
+    private final TimingWheel timer;
+    private final PeerTable peers;
+    private final int maxRetransmitCount;
+    private final long windowTimeout;
+    private final SendWindow window;
+    // Seeded randomly, so receivers can tell a restarted sender from one that is far ahead.
+    private final AtomicInteger nextSequenceNumber = new AtomicInteger(RawPacket.newNonce() * 0x9E3779B9);
+    private final IntHashMap<Transmission> inFlight = new IntHashMap<>();
+    private final ParityEncoder parityEncoder = new ParityEncoder();
+
+    /**
+     * @param windowSize the maximum number of group packets that are not done yet
+     * @param windowTimeout how long a broadcast blocks on a full window in milliseconds, 0 to fail immediately
+     * @param maxRetransmitCount the number of times a group packet is sent before the receivers that miss it are
+     *                           removed from the network
+     */
+    public GroupSender(SocketImpl socket, TimingWheel timer, PeerTable peers, int windowSize, long windowTimeout, int maxRetransmitCount) {
+        this.socket = socket;
+        this.timer = timer;
+        this.peers = peers;
+        this.windowTimeout = windowTimeout;
+        this.maxRetransmitCount = maxRetransmitCount;
+        this.window = new SendWindow(windowSize);
+    }
+
+    /**
+     * Send data to every peer in the network, waiting for room in the window. A message that is split into fragments
+     * only waits for room for its first fragment.
+     */
+    public void send(byte[] data) throws IOException {
+        byte options = 0;
+        byte[] compressed = canCompress() ? PayloadCompressor.compress(data) : null;
+
+        if (compressed != null) {
+            data = compressed;
+            options = RawPacket.COMPRESSED_OPTION;
+        }
+
+        List<byte[]> fragments = FragmentSizer.split(data, getFragmentSize());
+
+        if (fragments.size() > 1) {
+            synchronized (window) {
+                window.awaitSpace(windowTimeout);
+                window.enqueueFragments(fragments, options);
+            }
+
+            sendPending();
+            return;
+        }
+
+        RawPacket packet;
+        RawPacket parity;
+
+        synchronized (window) {
+            window.awaitSpace(windowTimeout);
+            packet = newGroupData(data, options);
+            window.add(packet.getSequenceNumber());
+            parity = parityEncoder.add(packet, socket.getParityBlockSize());
+        }
+
+        transmit(packet, null);
+
+        if (parity != null) {
+            sendPacket(parity);
+        }
+    }
+
+    /**
+     * Send data to every peer in the network without waiting for room in the window.
+     * @return a future that completes when every peer acknowledged the data
+     */
+    public SendFuture sendAsync(byte[] data) {
+        byte options = 0;
+        byte[] compressed = canCompress() ? PayloadCompressor.compress(data) : null;
+
+        if (compressed != null) {
+            data = compressed;
+            options = RawPacket.COMPRESSED_OPTION;
+        }
+
+        List<byte[]> fragments = FragmentSizer.split(data, getFragmentSize());
+        SendFuture future;
+
+        if (fragments.size() > 1) {
+            future = window.enqueueFragments(fragments, options);
+        } else {
+            future = new SendFuture();
+            window.enqueue(data, options, future);
+        }
+
+        sendPending();
+        return future;
+    }
+
+    /**
+     * Handle a group acknowledgement.
+     * @param acknowledgement the acknowledgement from one of the receivers
+     */
+    public void onAcknowledgement(RawPacket acknowledgement) {
+        List<Transmission> done = new ArrayList<>();
+        List<Transmission> missing = new ArrayList<>();
+        Peer peer = peers.get(acknowledgement.getSource());
+        long lastSentTime = -1;
+
+        if (peer != null) {
+            // The receiver has one receive queue for unicast and group packets, so this is the same window.
+            peer.getSendWindow().setPeerWindow(acknowledgement.getWindow());
+        }
+
+        synchronized (this) {
+            for (int sequenceNumber : inFlight.keys()) {
+                Transmission transmission = inFlight.get(sequenceNumber);
+
+                if (acknowledgement.acknowledges(sequenceNumber) && transmission.receivers.remove(acknowledgement.getSource())) {
+                    if (transmission.attempt == 0) {
+                        lastSentTime = Math.max(lastSentTime, transmission.sentTime);
+                    }
+
+                    if (transmission.receivers.isEmpty()) {
+                        inFlight.remove(sequenceNumber);
+                        done.add(transmission);
+                    }
+                } else if (acknowledgement.reportsMissing(sequenceNumber) &&
+                        transmission.receivers.contains(acknowledgement.getSource())) {
+                    missing.add(transmission);
+                }
+            }
+        }
+
+        if (peer != null && lastSentTime >= 0) {
+            peer.getRttEstimator().addSample(System.currentTimeMillis() - lastSentTime);
+        }
+
+        finish(done, null);
+
+        if (peer != null) {
+            for (Transmission transmission : missing) {
+                transmission.retransmitNow((long) peer.getRttEstimator().getSmoothedRtt());
+            }
+        }
+    }
+
+    /**
+     * Stop waiting for a peer that left the network.
+     * @param address the address of the peer
+     */
+    public void removeReceiver(int address) {
+        List<Transmission> done = new ArrayList<>();
+
+        synchronized (this) {
+            for (int sequenceNumber : inFlight.keys()) {
+                Transmission transmission = inFlight.get(sequenceNumber);
+
+                if (transmission.receivers.remove(address) && transmission.receivers.isEmpty()) {
+                    inFlight.remove(sequenceNumber);
+                    done.add(transmission);
+                }
+            }
+        }
+
+        finish(done, null);
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private void sendPending() {
+        while (true) {
+            SendWindow.Pending pending;
+            RawPacket packet;
+            RawPacket parity;
+
+            synchronized (window) {
+                pending = window.pollPending();
+
+                if (pending == null) {
+                    return;
+                }
+
+                packet = newGroupData(pending.getData(), pending.getOptions());
+                window.add(packet.getSequenceNumber());
+                parity = parityEncoder.add(packet, socket.getParityBlockSize());
+            }
+
+            transmit(packet, pending.getFuture());
+
+            if (parity != null) {
+                sendPacket(parity);
+            }
+        }
+    }
+
+    private RawPacket newGroupData(byte[] data, byte options) {
+        int sequenceNumber = nextSequenceNumber.getAndIncrement();
+        RawPacket packet = RawPacket.newGroupData(sequenceNumber, getBase(sequenceNumber), socket.getIp(),
+                RawPacket.BROADCAST, data);
+        packet.setOptions(options);
+        return packet;
+    }
+
+    /**
+     * Whether broadcasts can be compressed: every peer in the network must be able to decompress them.
+     */
+    private boolean canCompress() {
+        if (!socket.isCompression()) {
+            return false;
+        }
+
+        for (Peer peer : peers.getPeers()) {
+            if (peer.isInNetwork() && !peer.isCompression()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The fragment size for the group: the smallest one of the peers in the network, as every one of them receives
+     * the same packets.
+     */
+    private int getFragmentSize() {
+        int fragmentSize = FragmentSizer.MAX_FRAGMENT_SIZE;
+
+        for (Peer peer : peers.getPeers()) {
+            if (peer.isInNetwork()) {
+                fragmentSize = Math.min(fragmentSize, peer.getFragmentSizer().getFragmentSize());
+            }
+        }
+
+        return fragmentSize;
+    }
+
+    /**
+     * The oldest group sequence number that is not done yet.
+     */
+    private synchronized int getBase(int next) {
+        int base = next;
+
+        for (int sequenceNumber : inFlight.keys()) {
+            if (Util.differenceWithWrapAround(sequenceNumber, base) < 0) {
+                base = sequenceNumber;
+            }
+        }
+
+        return base;
+    }
+
+    /**
+     * Whether the receiver advertised a closed window, in which case it reads slowly but is still there.
+     */
+    private boolean isWindowClosed(int receiver) {
+        Peer peer = peers.get(receiver);
+        return peer != null && peer.getSendWindow().getPeerWindow() == 0;
+    }
+
+    private void transmit(RawPacket packet, SendFuture future) {
+        Set<Integer> receivers = new HashSet<>();
+
+        for (Peer peer : peers.getPeers()) {
+            if (peer.isInNetwork()) {
+                receivers.add(peer.getAddress());
+            }
+        }
+
+        Transmission transmission = new Transmission(packet, receivers, future);
+
+        if (receivers.isEmpty()) {
+            List<Transmission> done = new ArrayList<>();
+            done.add(transmission);
+            finish(done, null);
+        } else {
+            synchronized (this) {
+                inFlight.put(packet.getSequenceNumber(), transmission);
+            }
+
+            transmission.schedule();
+        }
+
+        sendPacket(packet);
+    }
+
+    private void sendPacket(RawPacket packet) {
+        try {
+            socket.send(packet);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void finish(List<Transmission> transmissions, IOException cause) {
+        if (transmissions.isEmpty()) {
+            return;
+        }
+
+        for (Transmission transmission : transmissions) {
+            if (transmission.timeout != null) {
+                transmission.timeout.cancel();
+            }
+
+            window.remove(transmission.packet.getSequenceNumber());
+
+            if (transmission.future != null) {
+                if (cause == null) {
+                    transmission.future.complete();
+                } else {
+                    transmission.future.fail(cause);
+                }
+            }
+        }
+
+        sendPending();
+    }
+
+    private class Transmission implements Runnable {
+        private final RawPacket packet;
+        private final Set<Integer> receivers;
+        private final SendFuture future;
+        // Guarded by GroupSender.this, like the receivers.
+        private int attempt = 0;
+        private long sentTime = System.currentTimeMillis();
+        private volatile TimingWheel.Timeout timeout;
+
+        private Transmission(RawPacket packet, Set<Integer> receivers, SendFuture future) {
+            this.packet = packet;
+            this.receivers = receivers;
+            this.future = future;
+        }
+
+        /**
+         * Schedule the retransmission after the longest timeout of the receivers.
+         */
+        private void schedule() {
+            long delay = RttEstimator.MIN_TIMEOUT;
+
+            synchronized (GroupSender.this) {
+                for (int receiver : receivers) {
+                    Peer peer = peers.get(receiver);
+
+                    if (peer != null) {
+                        delay = Math.max(delay, peer.getRttEstimator().getTimeout(attempt));
+                    }
+                }
+
+                timeout = timer.schedule(this, delay);
+            }
+        }
+
+        /**
+         * Retransmit without waiting for the timeout, unless the packet was sent less than the given time ago, or the
+         * timeout already expired and the timing wheel retransmits it.
+         */
+        private void retransmitNow(long minAge) {
+            synchronized (GroupSender.this) {
+                // Only the one that takes the timeout off the wheel retransmits, the wheel or this call.
+                if (System.currentTimeMillis() - sentTime < minAge || timeout == null || !timeout.cancel()) {
+                    return;
+                }
+            }
+
+            run();
+        }
+
+        @Override
+        public void run() {
+            List<Integer> missing;
+            List<Integer> failed = new ArrayList<>();
+
+            synchronized (GroupSender.this) {
+                if (inFlight.get(packet.getSequenceNumber()) != this) {
+                    return;
+                }
+
+                // Probing receivers that closed their window does not use up the retries, only the others count.
+                boolean open = false;
+
+                for (int receiver : receivers) {
+                    open |= !isWindowClosed(receiver);
+                }
+
+                if (open) {
+                    attempt++;
+                }
+
+                if (attempt >= maxRetransmitCount) {
+                    for (int receiver : receivers) {
+                        if (!isWindowClosed(receiver)) {
+                            failed.add(receiver);
+                        }
+                    }
+
+                    receivers.removeAll(failed);
+                    // Whoever is left only waits for room in their receive queue, and is probed at the last interval.
+                    attempt = maxRetransmitCount - 1;
+
+                    if (receivers.isEmpty()) {
+                        inFlight.remove(packet.getSequenceNumber());
+                    }
+                }
+
+                missing = new ArrayList<>(receivers);
+
+                if (!missing.isEmpty()) {
+                    sentTime = System.currentTimeMillis();
+                    schedule();
+                }
+            }
+
+            for (int receiver : failed) {
+                socket.removeFromNetwork(Util.toInetAddress(receiver));
+            }
+
+            if (missing.isEmpty()) {
+                List<Transmission> done = new ArrayList<>();
+                done.add(this);
+                finish(done, new IOException("No acknowledgement from " + failed.size() + " receivers"));
+                return;
+            }
+
+            int base = getBase(packet.getSequenceNumber());
+
+            if (missing.size() <= MAX_ADDRESSED_RETRANSMISSIONS) {
+                for (int receiver : missing) {
+                    retransmit(receiver, base);
+                }
+            } else {
+                retransmit(RawPacket.BROADCAST, base);
+            }
+        }
+
+        private void retransmit(int destination, int base) {
+            RawPacket copy = RawPacket.newGroupData(packet.getSequenceNumber(), base, socket.getIp(), destination,
+                    packet.getData());
+            copy.setOptions(packet.getOptions());
+            sendPacket(copy);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package transport_v2;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Open addressing hash map from primitive int keys to values, so looking up a sequence number does not box it.
+ *
+ * Not thread safe, callers synchronize themselves.
+ */
+public class IntHashMap<V> {
+    private static final int MIN_CAPACITY = 8;
+
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    public IntHashMap() {
+        keys = new int[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = find(key);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        V previous = (V) values[slot];
+        int mask = keys.length - 1;
+
+        // Shift later entries of the same probe sequence back, so lookups never stop at the emptied slot.
+        int empty = slot;
+        int current = (slot + 1) & mask;
+
+        while (values[current] != null) {
+            int home = hash(keys[current]) & mask;
+
+            if (((current - home) & mask) >= ((current - empty) & mask)) {
+                keys[empty] = keys[current];
+                values[empty] = values[current];
+                empty = current;
+            }
+
+            current = (current + 1) & mask;
+        }
+
+        values[empty] = null;
+        size--;
+        return previous;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Copy the keys into an array.
+     * @return the keys, in no particular order
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int i = 0;
+
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (values[slot] != null) {
+                result[i++] = keys[slot];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Add all values to the collection.
+     * @param destination the collection to add to
+     */
+    @SuppressWarnings("unchecked")
+    public void valuesInto(Collection<? super V> destination) {
+        for (Object value : values) {
+            if (value != null) {
+                destination.add((V) value);
+            }
+        }
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        keys = new int[capacity];
+        values = new Object[capacity];
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], valueOf(oldValues[i]));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueOf(Object value) {
+        return (V) value;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
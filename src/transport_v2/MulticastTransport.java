@@ -0,0 +1,50 @@
+package transport_v2;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+
+/**
+ * A transport on a blocking {@link MulticastSocket}. Sends are serialized on a single reused datagram.
+ */
+public class MulticastTransport implements Transport {
+    private final MulticastSocket socket;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(1 << 16);
+    private final DatagramPacket sendDatagram;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(1 << 16);
+    private final DatagramPacket receiveDatagram = new DatagramPacket(receiveBuffer.array(), receiveBuffer.capacity());
+
+    public MulticastTransport(InetAddress group, int port, NetworkInterface netIF) throws IOException {
+        this.socket = new MulticastSocket(port);
+        this.sendDatagram = new DatagramPacket(sendBuffer.array(), 0, group, port);
+
+        socket.joinGroup(new InetSocketAddress(group, port), netIF);
+    }
+
+    @Override
+    public void send(RawPacket packet) throws IOException {
+        synchronized (sendDatagram) {
+            sendBuffer.clear();
+            packet.writeTo(sendBuffer);
+            sendDatagram.setLength(sendBuffer.position());
+            socket.send(sendDatagram);
+        }
+    }
+
+    @Override
+    public boolean receive(RawPacket packet) throws IOException {
+        receiveDatagram.setLength(receiveBuffer.capacity());
+        socket.receive(receiveDatagram);
+
+        return packet.wrap(receiveBuffer, 0, receiveDatagram.getLength());
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
@@ -0,0 +1,218 @@
+package transport_v2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses which clients relay floods, so a flooded packet is not retransmitted by every client that hears it.
+ *
+ * Every client lists its direct neighbours in its announces, and marks the neighbours it chose as multipoint relays.
+ * From the lists of its neighbours a client knows which clients are two hops away, and it chooses as few neighbours
+ * as it can that together reach all of them. A client only relays a packet that it received from a neighbour that
+ * chose it.
+ *
+ * Until a neighbour's announce has reached this client directly, its packets are relayed anyway, so floods still reach
+ * everyone while the lists are exchanged.
+ */
+public class MultipointRelays {
+    private static final int ENTRY_SIZE = 5;
+    private static final byte RELAY_FLAG = 1;
+
+    private final PeerTable peers;
+    private final int address;
+
+    /**
+     * @param peers the peers of the socket
+     * @param address the address of the socket
+     */
+    public MultipointRelays(PeerTable peers, int address) {
+        this.peers = peers;
+        this.address = address;
+    }
+
+    /**
+     * The data of an announce: the address of every direct neighbour, followed by a byte that is 1 if it was chosen
+     * as a relay.
+     * @return the encoded list
+     */
+    public byte[] encodeNeighbours() {
+        List<Peer> neighbours = getNeighbours();
+        ByteBuffer data = ByteBuffer.allocate(neighbours.size() * ENTRY_SIZE);
+
+        for (Peer neighbour : neighbours) {
+            data.putInt(neighbour.getAddress());
+            data.put(neighbour.isRelay() ? RELAY_FLAG : 0);
+        }
+
+        return data.array();
+    }
+
+    /**
+     * Learn the neighbours of the source of an announce and choose the relays again.
+     * @param peer the source of the announce
+     * @param announce the announce
+     */
+    public void onAnnounce(Peer peer, RawPacket announce) {
+        if (announce.getPreviousHop() != announce.getSource()) {
+            // Relayed, so the source is not a direct neighbour (anymore)
+            if (peer.getNeighbours() != null) {
+                peer.setNeighbours(null);
+                peer.setRelaySelector(false);
+                select();
+            }
+
+            return;
+        }
+
+        ByteBuffer data = announce.getPayload();
+        int[] neighbours = new int[data.remaining() / ENTRY_SIZE];
+        boolean selected = false;
+
+        for (int i = 0; i < neighbours.length; i++) {
+            neighbours[i] = data.getInt();
+
+            if (data.get() == RELAY_FLAG && neighbours[i] == address) {
+                selected = true;
+            }
+        }
+
+        peer.setNeighbours(neighbours);
+        peer.setRelaySelector(selected);
+
+        select();
+    }
+
+    /**
+     * Whether this client should relay the packet.
+     * @param packet a packet that is not addressed to this client
+     * @return false if the neighbour it came from chose other relays
+     */
+    public boolean shouldRelay(RawPacket packet) {
+        Peer previousHop = peers.get(packet.getPreviousHop());
+
+        if (previousHop == null || previousHop.getNeighbours() == null) {
+            return true;
+        }
+
+        return previousHop.isRelaySelector();
+    }
+
+    /**
+     * Choose the relays: first the neighbours that are the only way to reach some client two hops away, then
+     * repeatedly the neighbour that reaches the most clients that are not reached yet.
+     */
+    public synchronized void select() {
+        List<Peer> neighbours = getNeighbours();
+        Set<Integer> direct = new HashSet<>();
+
+        for (Peer neighbour : neighbours) {
+            direct.add(neighbour.getAddress());
+        }
+
+        // For every client two hops away, the neighbours that reach it
+        Map<Integer, List<Peer>> twoHop = new HashMap<>();
+
+        for (Peer neighbour : neighbours) {
+            int[] reachable = neighbour.getNeighbours();
+
+            if (reachable == null) {
+                continue;
+            }
+
+            for (int client : reachable) {
+                if (client == address || direct.contains(client)) {
+                    continue;
+                }
+
+                List<Peer> via = twoHop.get(client);
+
+                if (via == null) {
+                    via = new ArrayList<>();
+                    twoHop.put(client, via);
+                }
+
+                via.add(neighbour);
+            }
+        }
+
+        Set<Peer> relays = new HashSet<>();
+        Set<Integer> uncovered = new HashSet<>(twoHop.keySet());
+
+        for (List<Peer> via : twoHop.values()) {
+            if (via.size() == 1) {
+                relays.add(via.get(0));
+            }
+        }
+
+        for (Peer relay : relays) {
+            cover(relay, uncovered);
+        }
+
+        while (!uncovered.isEmpty()) {
+            Peer best = null;
+            int bestCount = 0;
+
+            for (Peer neighbour : neighbours) {
+                int count = relays.contains(neighbour) ? 0 : countUncovered(neighbour, uncovered);
+
+                if (count > bestCount) {
+                    best = neighbour;
+                    bestCount = count;
+                }
+            }
+
+            if (best == null) {
+                break;
+            }
+
+            relays.add(best);
+            cover(best, uncovered);
+        }
+
+        for (Peer neighbour : neighbours) {
+            neighbour.setRelay(relays.contains(neighbour));
+        }
+    }
+
+    private List<Peer> getNeighbours() {
+        List<Peer> neighbours = new ArrayList<>();
+
+        for (Peer peer : peers.getPeers()) {
+            if (peer.getDistance() == 1) {
+                neighbours.add(peer);
+            }
+        }
+
+        return neighbours;
+    }
+
+    private static void cover(Peer relay, Set<Integer> uncovered) {
+        int[] reachable = relay.getNeighbours();
+
+        if (reachable != null) {
+            for (int client : reachable) {
+                uncovered.remove(client);
+            }
+        }
+    }
+
+    private static int countUncovered(Peer neighbour, Set<Integer> uncovered) {
+        int[] reachable = neighbour.getNeighbours();
+        int count = 0;
+
+        if (reachable != null) {
+            for (int client : reachable) {
+                if (uncovered.contains(client)) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,23 @@
+package transport_v2;
+
+/**
+ * What the socket does with a data packet that arrives in order while the receive queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Leave the packet unacknowledged and advertise a closed window, so the sender probes with it until the
+     * application has made room. Probing a closed window does not count as a failed retransmission.
+     */
+    REJECT,
+
+    /**
+     * Wait a short time for the application to make room, then leave the packet unacknowledged like {@link #REJECT}.
+     * The wait holds up the receive worker, and with it every peer handled by that worker.
+     */
+    BLOCK,
+
+    /**
+     * Discard the oldest packet in the queue to make room. The discarded packet was acknowledged, so it is lost.
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,139 @@
+package transport_v2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Passes received packets to the listeners that registered for their kind.
+ *
+ * The listeners for every possible value of the flags byte are looked up once, when a listener is added or removed,
+ * and kept in an array that is replaced as a whole. Dispatching a packet is then a single array lookup without
+ * locking or copying.
+ *
+ * The receiver thread asks {@link #route(RawPacket)} which listeners a packet is for while it is still a view on the
+ * receive buffer, so only packets that some listener needs are copied for a worker. Every copy of a packet that may
+ * have to be relayed reaches the relay listeners, because whether this node has to relay a flooded packet depends on
+ * the neighbour the copy came from, and the first copy may come from one that did not select it. Only the local
+ * listeners are protected from duplicates, relay listeners have to remember what they relayed themselves.
+ */
+public class PacketDispatcher implements PacketListener {
+    private static final int FLAG_VALUES = 1 << 7;
+    private static final PacketListener[] NO_LISTENERS = new PacketListener[0];
+
+    public static final int NONE = 0;
+    public static final int LOCAL = 1;
+    public static final int RELAY = 2;
+
+    private final SocketImpl socket;
+    private final DuplicateFilter handledPackets;
+    private final LinkedHashMap<PacketListener, EnumSet<PacketKind>> registrations = new LinkedHashMap<>();
+
+    private volatile PacketListener[][] localListeners = new PacketListener[FLAG_VALUES][];
+    private volatile PacketListener[] relayListeners = NO_LISTENERS;
+
+    /**
+     * @param handledPackets the filter that keeps packets that were already handled from the local listeners
+     */
+    public PacketDispatcher(SocketImpl socket, DuplicateFilter handledPackets) {
+        this.socket = socket;
+        this.handledPackets = handledPackets;
+        Arrays.fill(localListeners, NO_LISTENERS);
+    }
+
+    public void addPacketListener(PacketListener listener, EnumSet<PacketKind> kinds) {
+        synchronized (registrations) {
+            registrations.put(listener, EnumSet.copyOf(kinds));
+            rebuild();
+        }
+    }
+
+    public void removePacketListener(PacketListener listener) {
+        synchronized (registrations) {
+            registrations.remove(listener);
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        PacketListener[][] local = new PacketListener[FLAG_VALUES][];
+        ArrayList<PacketListener> matching = new ArrayList<>();
+
+        for (int flags = 0; flags < FLAG_VALUES; flags++) {
+            EnumSet<PacketKind> kinds = PacketKind.of((byte) flags);
+            matching.clear();
+
+            for (Map.Entry<PacketListener, EnumSet<PacketKind>> registration : registrations.entrySet()) {
+                if (!Collections.disjoint(registration.getValue(), kinds)) {
+                    matching.add(registration.getKey());
+                }
+            }
+
+            local[flags] = matching.toArray(NO_LISTENERS);
+        }
+
+        matching.clear();
+
+        for (Map.Entry<PacketListener, EnumSet<PacketKind>> registration : registrations.entrySet()) {
+            if (registration.getValue().contains(PacketKind.RELAY)) {
+                matching.add(registration.getKey());
+            }
+        }
+
+        localListeners = local;
+        relayListeners = matching.toArray(NO_LISTENERS);
+    }
+
+    /**
+     * Decide which listeners a received packet is for, and remember it as handled if it is for the local ones. Called
+     * on the receiver thread before the packet is copied, so it allocates nothing.
+     * @param packet the received packet, which may be a view on a buffer that is reused
+     * @return {@link #LOCAL} and {@link #RELAY} or-ed together, or {@link #NONE} if the packet can be dropped
+     */
+    public int route(RawPacket packet) {
+        int destination = packet.getDestination();
+        int targets = NONE;
+
+        // Broadcasts, such as announces, are both handled here and relayed to the rest of the network.
+        if ((destination == socket.getAddress() || destination == RawPacket.BROADCAST) &&
+                localListeners[packet.getFlags()].length > 0 &&
+                !handledPackets.isDuplicate(packet.getSource(), packet.getNonce())) {
+            targets |= LOCAL;
+        }
+
+        // Only packets with hops left that are flooded or routed through this node can be relayed.
+        if (destination != socket.getAddress() && relayListeners.length > 0 && packet.getHopLimit() > 1 &&
+                (packet.getNextHop() == RawPacket.BROADCAST || packet.getNextHop() == socket.getAddress())) {
+            targets |= RELAY;
+        }
+
+        return targets;
+    }
+
+    /**
+     * Pass a packet to its listeners, after {@link #route(RawPacket)} decided it is needed.
+     */
+    @Override
+    public void onPacketReceived(RawPacket packet) {
+        if (SocketImpl.LOG_PACKETS) {
+            System.out.println("received " + packet);
+        }
+
+        int destination = packet.getDestination();
+
+        if (!packet.isRelayOnly() && (destination == socket.getAddress() || destination == RawPacket.BROADCAST)) {
+            for (PacketListener listener : localListeners[packet.getFlags()]) {
+                listener.onPacketReceived(packet);
+            }
+        }
+
+        if (destination != socket.getAddress()) {
+            for (PacketListener listener : relayListeners) {
+                listener.onPacketReceived(packet);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package transport_v2;
+
+import java.util.EnumSet;
+
+/**
+ * The kinds of packets a {@link PacketListener} can register for.
+ */
+public enum PacketKind {
+    ANNOUNCE,
+    SYN,
+    SYN_ACK,
+    /**
+     * Packets that acknowledge packets we sent, either a bare acknowledgement or one piggybacked on data.
+     */
+    ACK,
+    DATA,
+    /**
+     * Packets that are not addressed to us, whatever their flags.
+     */
+    RELAY;
+
+    /**
+     * The kinds of a packet that is addressed to us, by its flags.
+     * @param flags the flags of the packet
+     * @return the kinds of the packet
+     */
+    public static EnumSet<PacketKind> of(byte flags) {
+        EnumSet<PacketKind> result = EnumSet.noneOf(PacketKind.class);
+
+        if ((flags & RawPacket.ANNOUNCE_MASK) != 0) {
+            result.add(ANNOUNCE);
+        } else if ((flags & RawPacket.SYN_MASK) != 0) {
+            result.add((flags & RawPacket.ACK_MASK) != 0 ? SYN_ACK : SYN);
+        } else if ((flags & RawPacket.ACK_MASK) != 0) {
+            result.add(ACK);
+        } else {
+            result.add(DATA);
+
+            if ((flags & RawPacket.SACK_MASK) != 0) {
+                result.add(ACK);
+            }
+        }
+
+        return result;
+    }
+}
@@ -2,6 +2,12 @@ package transport_v2;
 
 public interface PacketListener {
 
+    /**
+     * Called for every received packet. The packet is a copy that belongs to the receive worker, so it may be kept
+     * without copying it again. Relay listeners run after the local ones and may change its hop limit, previous hop
+     * and next hop in place before forwarding it; nothing else in it changes.
+     * @param packet the received packet
+     */
     public void onPacketReceived(RawPacket packet);
 
 }
@@ -0,0 +1,85 @@
+package transport_v2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds XOR parity packets over blocks of consecutive data packets of one stream, so a receiver can rebuild a single
+ * lost packet of a block without waiting for a retransmission.
+ *
+ * The data of a parity packet is the XOR of the options, the data length and the data of the packets in its block,
+ * each padded with zeroes to the longest one. Packets must be added in the order of their sequence numbers; a packet
+ * that does not directly follow the previous one starts a new block.
+ */
+public class ParityEncoder {
+    /**
+     * The options byte and the data length in front of the XOR of the data.
+     */
+    public static final int PARITY_HEADER_SIZE = 3;
+
+    /**
+     * The largest amount of data a protected packet can carry, larger packets end the block without parity.
+     */
+    public static final int MAX_PROTECTED_DATA = SocketImpl.MAX_DATA_SIZE - PARITY_HEADER_SIZE;
+
+    private byte[] parity = new byte[PARITY_HEADER_SIZE];
+    private int length = PARITY_HEADER_SIZE;
+    private int firstSequenceNumber;
+    private int count = 0;
+
+    /**
+     * Add a data packet that is sent for the first time.
+     * @param packet the data packet
+     * @param blockSize the number of data packets per parity packet, less than 2 to send no parity
+     * @return the parity packet to send after the data packet if it completed a block, null otherwise
+     */
+    public synchronized RawPacket add(RawPacket packet, int blockSize) {
+        if (blockSize < 2 || packet.getDataLength() > MAX_PROTECTED_DATA) {
+            count = 0;
+            return null;
+        }
+
+        if (count > 0 && packet.getSequenceNumber() != firstSequenceNumber + count) {
+            count = 0;
+        }
+
+        if (count == 0) {
+            Arrays.fill(parity, 0, length, (byte) 0);
+            length = PARITY_HEADER_SIZE;
+            firstSequenceNumber = packet.getSequenceNumber();
+        }
+
+        length = Math.max(length, PARITY_HEADER_SIZE + packet.getDataLength());
+
+        if (parity.length < length) {
+            parity = Arrays.copyOf(parity, Math.max(length, parity.length * 2));
+        }
+
+        xor(parity, packet);
+        count++;
+
+        if (count < blockSize) {
+            return null;
+        }
+
+        count = 0;
+        return RawPacket.newParity(firstSequenceNumber, blockSize, packet.isGroup(), packet.getSourceIp(),
+                packet.getDestination(), Arrays.copyOf(parity, length));
+    }
+
+    /**
+     * XOR the options, data length and data of the packet into the parity, which must be large enough for its data.
+     */
+    static void xor(byte[] parity, RawPacket packet) {
+        int dataLength = packet.getDataLength();
+        ByteBuffer payload = packet.getPayload();
+
+        parity[0] ^= packet.getOptions();
+        parity[1] ^= (byte) (dataLength >>> 8);
+        parity[2] ^= (byte) dataLength;
+
+        for (int i = 0; i < dataLength; i++) {
+            parity[PARITY_HEADER_SIZE + i] ^= payload.get(i);
+        }
+    }
+}
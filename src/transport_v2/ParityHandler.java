@@ -0,0 +1,135 @@
+package transport_v2;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sits in front of the {@link DataHandler} and rebuilds data packets from parity packets.
+ *
+ * The handler remembers the most recent data packets of every source. When a parity packet arrives and exactly one
+ * packet of its block is missing, that packet is rebuilt by XOR-ing the parity with the others and passed on as if it
+ * was received. Parity packets themselves are never passed on.
+ */
+public class ParityHandler implements PacketListener {
+    // The number of recent data packets remembered per source, a power of two.
+    private static final int HISTORY_SIZE = 64;
+
+    private final PacketListener next;
+    // Packets from one source are always handled by the same receive worker, so only the maps are shared.
+    private final ConcurrentHashMap<InetAddress, RawPacket[]> histories = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetAddress, RawPacket[]> groupHistories = new ConcurrentHashMap<>();
+    private final AtomicLong recovered = new AtomicLong();
+
+    /**
+     * @param next the listener for the received and rebuilt data packets
+     */
+    public ParityHandler(PacketListener next) {
+        this.next = next;
+    }
+
+    @Override
+    public void onPacketReceived(RawPacket packet) {
+        if (packet.isParity()) {
+            RawPacket rebuilt = recover(packet);
+
+            if (rebuilt != null) {
+                recovered.incrementAndGet();
+                remember(rebuilt);
+                next.onPacketReceived(rebuilt);
+            }
+
+            return;
+        }
+
+        if (!packet.isSyn() && !packet.isAck() && !packet.isAnnounce()) {
+            // Only its hop fields may change after this, which the parity does not cover.
+            remember(packet);
+        }
+
+        next.onPacketReceived(packet);
+    }
+
+    /**
+     * The number of data packets that were rebuilt from parity.
+     */
+    public long getRecovered() {
+        return recovered.get();
+    }
+
+    private void remember(RawPacket packet) {
+        ConcurrentHashMap<InetAddress, RawPacket[]> map = packet.isGroup() ? groupHistories : histories;
+        RawPacket[] history = map.get(packet.getSourceIp());
+
+        if (history == null) {
+            history = new RawPacket[HISTORY_SIZE];
+            map.put(packet.getSourceIp(), history);
+        }
+
+        history[packet.getSequenceNumber() & (HISTORY_SIZE - 1)] = packet;
+    }
+
+    /**
+     * Rebuild the only packet of the parity's block that was not received.
+     * @return the packet, or null if none or more than one packet is missing
+     */
+    private RawPacket recover(RawPacket parity) {
+        RawPacket[] history = (parity.isGroup() ? groupHistories : histories).get(parity.getSourceIp());
+        int first = parity.getSequenceNumber();
+        int count = parity.getAcknowledgmentNumber();
+
+        if (history == null || count < 2 || count > HISTORY_SIZE) {
+            return null;
+        }
+
+        byte[] data = parity.getData();
+        boolean missing = false;
+        int missingSequenceNumber = 0;
+        int base = 0;
+        boolean hasBase = false;
+
+        for (int i = 0; i < count; i++) {
+            int sequenceNumber = first + i;
+            RawPacket packet = history[sequenceNumber & (HISTORY_SIZE - 1)];
+
+            if (packet == null || packet.getSequenceNumber() != sequenceNumber) {
+                if (missing) {
+                    return null;
+                }
+
+                missing = true;
+                missingSequenceNumber = sequenceNumber;
+            } else if (packet.getDataLength() + ParityEncoder.PARITY_HEADER_SIZE > data.length) {
+                return null;
+            } else {
+                ParityEncoder.xor(data, packet);
+
+                // Group packets carry the oldest unfinished sequence number of the source, the oldest one of the block
+                // is safe for the rebuilt packet as it was already accepted.
+                if (!hasBase || Util.differenceWithWrapAround(packet.getAcknowledgmentNumber(), base) < 0) {
+                    base = packet.getAcknowledgmentNumber();
+                    hasBase = true;
+                }
+            }
+        }
+
+        int length = (data[1] & 0xFF) << 8 | (data[2] & 0xFF);
+
+        if (!missing || ParityEncoder.PARITY_HEADER_SIZE + length > data.length) {
+            return null;
+        }
+
+        byte[] payload = Arrays.copyOfRange(data, ParityEncoder.PARITY_HEADER_SIZE, ParityEncoder.PARITY_HEADER_SIZE + length);
+        RawPacket rebuilt;
+
+        if (parity.isGroup()) {
+            rebuilt = RawPacket.newGroupData(missingSequenceNumber, base, parity.getSourceIp(), parity.getDestination(), payload);
+        } else {
+            rebuilt = RawPacket.newData(missingSequenceNumber, parity.getSourceIp(), parity.getDestinationIp(), payload);
+        }
+
+        rebuilt.setOptions(data[0]);
+        return rebuilt;
+    }
+}
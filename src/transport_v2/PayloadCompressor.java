@@ -0,0 +1,105 @@
+package transport_v2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the data of messages with deflate and a preset dictionary, so even short messages shrink.
+ *
+ * The dictionary holds samples of the JSON messages of the chat protocol, with the most common ones last, where
+ * deflate can refer to them with the shortest distances. Both sides must use the same dictionary, changing it breaks
+ * compatibility with clients that use the old one.
+ *
+ * Deflaters and inflaters are kept per thread, as creating them allocates native memory.
+ */
+public class PayloadCompressor {
+    private static final byte[] DICTIONARY = ("{\"conversation\":0,\"other\":\"\",\"type\":\"inviteMessage\"}" +
+            "{\"convId\":0,\"type\":\"leaveConversationMessage\"}" +
+            "{\"type\":\"requestNickMessage\"}" +
+            "{\"username\":\"\",\"type\":\"leaveMessage\"}" +
+            "{\"username\":\"\",\"type\":\"nickChangeMessage\"}" +
+            "{\"convId\":0,\"nickname\":\"\",\"message\":\"\",\"type\":\"textMessage\"}").getBytes(Charset.forName("UTF-8"));
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private PayloadCompressor() {
+    }
+
+    /**
+     * Compress data.
+     * @return the compressed data, or null if it is not smaller than the data itself
+     */
+    public static byte[] compress(byte[] data) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(data);
+        deflater.finish();
+
+        // Output that is not smaller is useless, so the buffer never needs to grow.
+        byte[] result = new byte[data.length];
+        int length = 0;
+
+        while (!deflater.finished() && length < result.length) {
+            length += deflater.deflate(result, length, result.length - length);
+        }
+
+        if (!deflater.finished() || length >= data.length) {
+            return null;
+        }
+
+        return Arrays.copyOf(result, length);
+    }
+
+    /**
+     * Decompress data that was compressed with {@link #compress(byte[])}.
+     * @param maxSize the largest size the decompressed data may have
+     * @return the data, or null if it is corrupt or larger than the maximum
+     */
+    public static byte[] decompress(byte[] data, int maxSize) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        // Raw deflate needs an extra byte of input to detect the end of the stream.
+        inflater.setInput(Arrays.copyOf(data, data.length + 1));
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.length * 4);
+        byte[] buffer = new byte[4096];
+
+        try {
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+
+                result.write(buffer, 0, length);
+
+                if (result.size() > maxSize) {
+                    return null;
+                }
+            }
+        } catch (DataFormatException e) {
+            return null;
+        }
+
+        return result.toByteArray();
+    }
+}
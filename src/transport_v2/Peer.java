@@ -0,0 +1,249 @@
+package transport_v2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything the socket keeps about one other client: its sequence numbers, the packets sent to it that are not
+ * acknowledged yet, its send window, its round trip time and whether it is part of the network.
+ */
+public class Peer {
+    private final int address;
+    private final InetAddress ip;
+    private final AtomicInteger nextSequenceNumber = new AtomicInteger(0);
+    private final SendWindow sendWindow;
+    private final RttEstimator rttEstimator;
+    private final ParityEncoder parityEncoder = new ParityEncoder();
+    private final FragmentSizer fragmentSizer = new FragmentSizer();
+    private final IntHashMap<AckAwaitTimerTask> sentButNoAck = new IntHashMap<>();
+
+    private volatile long timeLastAnnounceReceived = 0;
+    private volatile boolean inNetwork = false;
+    private volatile boolean compression = false;
+    private volatile int distance = 0;
+    private volatile int[] neighbours = null;
+    private volatile boolean relaySelector = false;
+    private volatile boolean relay = false;
+    private volatile RoutingTable.Route route = null;
+
+    public Peer(InetAddress ip, int sendWindowSize, long timerGranularity) {
+        this.address = Util.toInt(ip);
+        this.ip = ip;
+        this.sendWindow = new SendWindow(sendWindowSize);
+        this.rttEstimator = new RttEstimator(timerGranularity);
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public InetAddress getIp() {
+        return ip;
+    }
+
+    public int newSequenceNumber() {
+        return nextSequenceNumber.getAndIncrement();
+    }
+
+    public SendWindow getSendWindow() {
+        return sendWindow;
+    }
+
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
+
+    public ParityEncoder getParityEncoder() {
+        return parityEncoder;
+    }
+
+    public FragmentSizer getFragmentSizer() {
+        return fragmentSizer;
+    }
+
+    public long getTimeLastAnnounceReceived() {
+        return timeLastAnnounceReceived;
+    }
+
+    public void setTimeLastAnnounceReceived(long time) {
+        this.timeLastAnnounceReceived = time;
+    }
+
+    /**
+     * The number of hops to the peer, as measured from its announces.
+     * @return the distance, or 0 if it is not known yet
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    public void setDistance(int distance) {
+        this.distance = distance;
+    }
+
+    /**
+     * The direct neighbours of the peer, from its last announce that reached this client directly.
+     * @return the addresses of the neighbours, or null if the peer is not a known neighbour
+     */
+    public int[] getNeighbours() {
+        return neighbours;
+    }
+
+    public void setNeighbours(int[] neighbours) {
+        this.neighbours = neighbours;
+    }
+
+    /**
+     * Whether the peer chose this client as one of its multipoint relays, so this client forwards its floods.
+     */
+    public boolean isRelaySelector() {
+        return relaySelector;
+    }
+
+    public void setRelaySelector(boolean relaySelector) {
+        this.relaySelector = relaySelector;
+    }
+
+    /**
+     * Whether this client chose the peer as one of its multipoint relays.
+     */
+    public boolean isRelay() {
+        return relay;
+    }
+
+    public void setRelay(boolean relay) {
+        this.relay = relay;
+    }
+
+    /**
+     * @return the route to the peer, or null if none is known
+     */
+    public RoutingTable.Route getRoute() {
+        return route;
+    }
+
+    public void setRoute(RoutingTable.Route route) {
+        this.route = route;
+    }
+
+    /**
+     * Whether the peer said in its handshake that it can decompress data.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public boolean isInNetwork() {
+        return inNetwork;
+    }
+
+    void setInNetwork(boolean inNetwork) {
+        this.inNetwork = inNetwork;
+    }
+
+    /**
+     * Register a sent packet that waits for an acknowledgement, replacing an earlier transmission of it.
+     */
+    public synchronized void addSentButNoAck(AckAwaitTimerTask task) {
+        sentButNoAck.put(task.getPacket().getSequenceNumber(), task);
+    }
+
+    /**
+     * Whether the task is still the one waiting for the acknowledgement of its sequence number.
+     */
+    public synchronized boolean isAwaitingAck(AckAwaitTimerTask task) {
+        return sentButNoAck.get(task.getPacket().getSequenceNumber()) == task;
+    }
+
+    public synchronized AckAwaitTimerTask removeSentButNoAck(int sequenceNumber) {
+        return sentButNoAck.remove(sequenceNumber);
+    }
+
+    /**
+     * Remove all packets that are covered by a (selective) acknowledgement.
+     * @param acknowledgement the received acknowledgement
+     * @param acknowledged the collection to add the removed tasks to
+     */
+    public synchronized void removeAcknowledged(RawPacket acknowledgement, Collection<AckAwaitTimerTask> acknowledged) {
+        if (!acknowledgement.isSelectiveAck()) {
+            AckAwaitTimerTask task = sentButNoAck.remove(acknowledgement.getAcknowledgmentNumber());
+
+            if (task != null) {
+                acknowledged.add(task);
+            }
+
+            return;
+        }
+
+        for (int sequenceNumber : sentButNoAck.keys()) {
+            if (acknowledgement.acknowledges(sequenceNumber)) {
+                acknowledged.add(sentButNoAck.remove(sequenceNumber));
+            }
+        }
+    }
+
+    /**
+     * Find the packets that a negative acknowledgement reports missing.
+     * @param acknowledgement the received negative acknowledgement
+     * @param missing the collection to add the tasks of the missing packets to
+     */
+    public synchronized void getMissing(RawPacket acknowledgement, Collection<AckAwaitTimerTask> missing) {
+        for (int sequenceNumber : sentButNoAck.keys()) {
+            if (acknowledgement.reportsMissing(sequenceNumber)) {
+                missing.add(sentButNoAck.get(sequenceNumber));
+            }
+        }
+    }
+
+    public synchronized int getSentButNoAckCount() {
+        return sentButNoAck.size();
+    }
+
+    /**
+     * Stop waiting for acknowledgements, cancelling all retransmissions and queued sends and emptying the send window.
+     * @param cause why the sends failed
+     */
+    public void cancelAll(IOException cause) {
+        cancel(cause, true);
+    }
+
+    /**
+     * Stop waiting for acknowledgements of data after the peer restarted, like {@link #cancelAll(IOException)}, but
+     * keep retransmitting the handshake packets, which the restarted peer still needs.
+     * @param cause why the sends failed
+     */
+    public void cancelData(IOException cause) {
+        cancel(cause, false);
+    }
+
+    private void cancel(IOException cause, boolean handshakes) {
+        ArrayList<AckAwaitTimerTask> tasks = new ArrayList<>();
+        ArrayList<SendWindow.Pending> pending = new ArrayList<>();
+
+        synchronized (this) {
+            for (int sequenceNumber : sentButNoAck.keys()) {
+                if (handshakes || !sentButNoAck.get(sequenceNumber).getPacket().isSyn()) {
+                    tasks.add(sentButNoAck.remove(sequenceNumber));
+                }
+            }
+        }
+
+        for (AckAwaitTimerTask task : tasks) {
+            task.abort(cause);
+        }
+
+        sendWindow.drainPending(pending);
+        sendWindow.clear();
+
+        for (SendWindow.Pending send : pending) {
+            send.getFuture().fail(cause);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package transport_v2;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The peers of a socket, keyed by their IPv4 address as an int.
+ *
+ * The table is split into stripes by address. Every stripe is an immutable array that is replaced as a whole under
+ * the stripe's lock, so lookups never lock or allocate and changes to peers in different stripes do not
+ * contend. Peers are only added and removed when clients join or leave, which is rare compared to lookups.
+ *
+ * For iteration the table keeps immutable snapshots of all peers and of the peers that are part of the network.
+ */
+public class PeerTable {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final int sendWindowSize;
+    private final long timerGranularity;
+
+    private volatile List<Peer> peers = Collections.emptyList();
+    private volatile List<InetAddress> network = Collections.emptyList();
+    private volatile int diameter = 0;
+
+    public PeerTable(int sendWindowSize, long timerGranularity) {
+        this.sendWindowSize = sendWindowSize;
+        this.timerGranularity = timerGranularity;
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public Peer get(int address) {
+        return stripeFor(address).get(address);
+    }
+
+    public Peer get(InetAddress ip) {
+        return get(Util.toInt(ip));
+    }
+
+    public Peer getOrCreate(InetAddress ip) {
+        int address = Util.toInt(ip);
+        Peer peer = get(address);
+
+        if (peer != null) {
+            return peer;
+        }
+
+        Stripe stripe = stripeFor(address);
+
+        synchronized (stripe) {
+            peer = stripe.get(address);
+
+            if (peer == null) {
+                peer = new Peer(ip, sendWindowSize, timerGranularity);
+                stripe.add(peer);
+            }
+        }
+
+        updateSnapshots();
+        return peer;
+    }
+
+    public Peer remove(InetAddress ip) {
+        int address = Util.toInt(ip);
+        Stripe stripe = stripeFor(address);
+        Peer peer;
+
+        synchronized (stripe) {
+            peer = stripe.remove(address);
+        }
+
+        if (peer != null) {
+            peer.setInNetwork(false);
+            updateSnapshots();
+        }
+
+        return peer;
+    }
+
+    public boolean isInNetwork(InetAddress ip) {
+        Peer peer = get(ip);
+        return peer != null && peer.isInNetwork();
+    }
+
+    /**
+     * Mark the peer as part of the network.
+     * @return false if it already was
+     */
+    public boolean addToNetwork(InetAddress ip) {
+        Peer peer = getOrCreate(ip);
+
+        synchronized (this) {
+            if (peer.isInNetwork()) {
+                return false;
+            }
+
+            peer.setInNetwork(true);
+        }
+
+        updateSnapshots();
+        return true;
+    }
+
+    /**
+     * An immutable snapshot of all known peers.
+     */
+    public List<Peer> getPeers() {
+        return peers;
+    }
+
+    /**
+     * An immutable snapshot of the addresses of the peers that are part of the network.
+     */
+    public List<InetAddress> getNetwork() {
+        return network;
+    }
+
+    /**
+     * The largest distance to any known peer, an estimate of the network diameter as seen from this client.
+     * @return the diameter, or 0 if no distances are known
+     */
+    public int getDiameter() {
+        return diameter;
+    }
+
+    /**
+     * Update the distance to a peer and the diameter that depends on it.
+     * @param peer the peer
+     * @param distance the number of hops to the peer
+     */
+    public void setDistance(Peer peer, int distance) {
+        if (peer.getDistance() != distance) {
+            peer.setDistance(distance);
+            updateSnapshots();
+        }
+    }
+
+    private synchronized void updateSnapshots() {
+        ArrayList<Peer> allPeers = new ArrayList<>();
+        ArrayList<InetAddress> networkPeers = new ArrayList<>();
+        int maxDistance = 0;
+
+        for (Stripe stripe : stripes) {
+            for (Peer peer : stripe.peers) {
+                allPeers.add(peer);
+                maxDistance = Math.max(maxDistance, peer.getDistance());
+
+                if (peer.isInNetwork()) {
+                    networkPeers.add(peer.getIp());
+                }
+            }
+        }
+
+        peers = Collections.unmodifiableList(allPeers);
+        network = Collections.unmodifiableList(networkPeers);
+        diameter = maxDistance;
+    }
+
+    private Stripe stripeFor(int address) {
+        int h = address * 0x9E3779B9;
+        return stripes[(h >>> 16) & (STRIPES - 1)];
+    }
+
+    private static class Stripe {
+        private static final Peer[] NO_PEERS = new Peer[0];
+
+        // Replaced on every change, the array itself is never modified.
+        private volatile Peer[] peers = NO_PEERS;
+
+        private Peer get(int address) {
+            for (Peer peer : peers) {
+                if (peer.getAddress() == address) {
+                    return peer;
+                }
+            }
+
+            return null;
+        }
+
+        private void add(Peer peer) {
+            Peer[] newPeers = Arrays.copyOf(peers, peers.length + 1);
+            newPeers[peers.length] = peer;
+            peers = newPeers;
+        }
+
+        private Peer remove(int address) {
+            Peer[] current = peers;
+
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].getAddress() == address) {
+                    Peer[] newPeers = new Peer[current.length - 1];
+                    System.arraycopy(current, 0, newPeers, 0, i);
+                    System.arraycopy(current, i + 1, newPeers, i, current.length - i - 1);
+                    peers = newPeers;
+                    return current[i];
+                }
+            }
+
+            return null;
+        }
+    }
+}
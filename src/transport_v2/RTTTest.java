@@ -42,7 +42,7 @@ public class RTTTest {
         new RTTTest();
     }
 
-    private void recv() {
+    private void recv() throws InterruptedException {
         socket.receive();
     }
 
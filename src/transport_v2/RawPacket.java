@@ -3,8 +3,8 @@ package transport_v2;
 import exceptions.InvalidPacketException;
 
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /****
  *
@@ -13,7 +13,7 @@ import java.nio.ByteBuffer;
  *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
  *  |                       Number used once                        |
  *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
- *  |     Flags     |   Reserved 1  |   Reserved 2  |   Reserved 3  |
+ *  |     Flags     |   Hop Limit   |   Selective Acknowledgments   |
  *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
  *  |                        Sequence Number                        |
  *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
@@ -23,60 +23,116 @@ import java.nio.ByteBuffer;
  *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
  *  |                    Destination Address                        |
  *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  |            Window             |    Options    |   Reserved    |
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  |                    Previous Hop Address                       |
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  |                      Next Hop Address                         |
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
  *  |                             data                              |
  *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
  *
  *  Note that each tick mark represents one bit position.
+ *
+ *  If the SACK flag is set the acknowledgment number is cumulative: every sequence number up to and including it has
+ *  been received. Bit i of the selective acknowledgments then indicates that sequence number
+ *  acknowledgment number + 2 + i was received out of order as well. Data packets set the SACK flag without the ACK
+ *  flag to piggyback an acknowledgement.
+ *
+ *  If the NACK flag is set on a selective acknowledgement the receiver found a gap: the sequence numbers after the
+ *  acknowledgment number up to the highest selectively acknowledged one that are not acknowledged are missing, and
+ *  the source retransmits them without waiting for its retransmission timeout.
+ *
+ *  If the GROUP flag is set the sequence and acknowledgment numbers are in the group sequence number space of the
+ *  source, which is used for broadcasts to the whole network. The acknowledgment number of group data is the oldest
+ *  group sequence number the source still waits for.
+ *
+ *  If the PARITY flag is set the data is the XOR of a block of data packets from the same stream, see
+ *  {@link ParityEncoder}. The sequence number is the one of the first packet of the block and the acknowledgment
+ *  number is the number of packets in the block.
+ *
+ *  The hop limit is the number of times the packet may still be sent: every client that relays it decrements it in
+ *  place, and a packet that would be relayed with a hop limit of zero is dropped instead.
+ *
+ *  The previous hop is the client that sent this copy of the packet: the source itself, or the last client that relayed
+ *  it, which overwrites it in place.
+ *
+ *  The next hop is the only client that may relay the packet towards its destination. It is 0 for packets that are
+ *  flooded, either because they are broadcasts or because the sender knows no route to the destination.
+ *
+ *  The options describe the data. If MORE_FRAGMENTS is set the data is a fragment of a message that continues in the
+ *  packet with the next sequence number; the last fragment of a message does not set it. If COMPRESSED is set the data
+ *  of the message is compressed, see {@link PayloadCompressor}. On a SYN or SYN/ACK it tells that the source can
+ *  decompress data.
+ *
+ *  The window is the number of data packets the source can still accept from each peer before its receive queue is
+ *  full. It is filled in when the source sends the packet.
  */
 
-public class RawPacket implements Comparable<RawPacket> {
-    public static final int MIN_SIZE = 24;
+public class RawPacket {
+    public static final int MIN_SIZE = 36;
 
     public static final byte ACK_MASK =      0b00000001;
     public static final byte SYN_MASK =      0b00000010;
     public static final byte ANNOUNCE_MASK = 0b00000100;
+    public static final byte SACK_MASK =     0b00001000;
+    public static final byte GROUP_MASK =    0b00010000;
+    public static final byte NACK_MASK =     0b00100000;
+    public static final byte PARITY_MASK =   0b01000000;
     // private static final byte ZERO_MASK = 0b10000000; this bit must always be zero because evil stupid java only has signed byte.
 
+    public static final byte MORE_FRAGMENTS_OPTION = 0b00000001;
+    public static final byte COMPRESSED_OPTION =     0b00000010;
+
+    public static final int SACK_BITS = 16;
+
+    public static final int MAX_WINDOW = 0xFFFF;
+
+    // Announces are always sent with this hop limit, so receivers can tell how far away the source is.
+    public static final int MAX_HOP_LIMIT = 32;
+
+    public static final int BROADCAST = 0;
+
     private static final byte[] BROADCAST_ADDRESS = new byte[] { 0, 0, 0, 0 };
 
-    private final int nonce;
-    private final byte flags;
-    private final byte reserved1 = 0;
-    private final byte reserved2 = 0;
-    private final byte reserved3 = 0;
-    private final int sequenceNumber;
-    private int acknowledgmentNumber;
-    private byte[] sourceAddress = new byte[4];
-    private byte[] destinationAddress = new byte[4];
-    private final byte[] data;
+    // Seeded with the time, so a restarted client does not reuse the nonces it sent before.
+    private static final AtomicInteger lastNonce = new AtomicInteger((int) System.currentTimeMillis());
+
+    private static final int NONCE_OFFSET = 0;
+    private static final int FLAGS_OFFSET = 4;
+    private static final int HOP_LIMIT_OFFSET = 5;
+    private static final int SACK_OFFSET = 6;
+    private static final int SEQUENCE_NUMBER_OFFSET = 8;
+    private static final int ACKNOWLEDGMENT_NUMBER_OFFSET = 12;
+    private static final int SOURCE_OFFSET = 16;
+    private static final int DESTINATION_OFFSET = 20;
+    private static final int WINDOW_OFFSET = 24;
+    private static final int OPTIONS_OFFSET = 26;
+    private static final int PREVIOUS_HOP_OFFSET = 28;
+    private static final int NEXT_HOP_OFFSET = 32;
+
+    // A packet is a view on length bytes of buffer, starting at offset. Packets that are created to be sent own their
+    // buffer, received packets are usually a view on the receive buffer that is reused for the next datagram.
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+    // Not part of the encoded packet, set by the receiver thread on a duplicate that is only passed on to be relayed.
+    private boolean relayOnly;
+
+    /**
+     * An empty packet, to be pointed at received datagrams with {@link #wrap(ByteBuffer, int, int)}.
+     */
+    public RawPacket() {
+    }
 
+    /**
+     * A packet that is a view on the array, which must not be modified afterwards.
+     */
     public RawPacket(byte[] packet) throws InvalidPacketException {
         if (packet.length < MIN_SIZE) {
             throw new InvalidPacketException("Packet too small.");
-        } else {
-            ByteBuffer bb = ByteBuffer.wrap(packet);
-            nonce = bb.getInt();
-            flags = bb.get();
-            if (flags < 0) {
-                throw new InvalidPacketException(":(");
-            }
-            bb.get(); // Reserved 1
-            bb.get(); // Reserved 2
-            bb.get(); // Reserved 3
-            sequenceNumber = bb.getInt();
-            acknowledgmentNumber = bb.getInt();
-
-            for (int i = 0; i < 4; i++) {
-                sourceAddress[i] = bb.get();
-            }
-            for (int i = 0; i < 4; i++) {
-                destinationAddress[i] = bb.get();
-            }
-
-            data = new byte[bb.remaining()];
-            while (bb.remaining() > 0) {
-                data[data.length - bb.remaining()] = bb.get();
-            }
+        } else if (!wrap(ByteBuffer.wrap(packet), 0, packet.length)) {
+            throw new InvalidPacketException(":(");
         }
     }
 
@@ -100,108 +156,337 @@ public class RawPacket implements Comparable<RawPacket> {
 
     public RawPacket(int nonce, byte flags, int sequenceNumber, int acknowledgmentNumber,
                      byte[] sourceAddress, byte[] destinationAddress, byte[] data) throws InvalidPacketException {
+        this(nonce, flags, 0, sequenceNumber, acknowledgmentNumber, sourceAddress, destinationAddress, data);
+    }
+
+    public RawPacket(int nonce, byte flags, int selectiveAcknowledgments, int sequenceNumber, int acknowledgmentNumber,
+                     byte[] sourceAddress, byte[] destinationAddress, byte[] data) throws InvalidPacketException {
         if (flags < 0) {
             throw new InvalidPacketException(":(");
         } else if (sourceAddress.length != 4 || destinationAddress.length != 4) {
             throw new InvalidPacketException("Source and destination address need to be 4 bytes.");
         } else {
-            this.nonce = nonce;
-            this.flags = flags;
-            this.sequenceNumber = sequenceNumber;
-            this.acknowledgmentNumber = acknowledgmentNumber;
-            this.sourceAddress = sourceAddress.clone();
-            this.destinationAddress = destinationAddress.clone();
+            int dataLength = data != null ? data.length : 0;
+
+            this.buffer = ByteBuffer.allocate(MIN_SIZE + dataLength);
+            this.offset = 0;
+            this.length = MIN_SIZE + dataLength;
+
+            buffer.putInt(NONCE_OFFSET, nonce);
+            buffer.put(FLAGS_OFFSET, flags);
+            buffer.put(HOP_LIMIT_OFFSET, (byte) MAX_HOP_LIMIT);
+            buffer.putShort(SACK_OFFSET, (short) selectiveAcknowledgments);
+            buffer.putInt(SEQUENCE_NUMBER_OFFSET, sequenceNumber);
+            buffer.putInt(ACKNOWLEDGMENT_NUMBER_OFFSET, acknowledgmentNumber);
+            buffer.putInt(SOURCE_OFFSET, Util.toInt(sourceAddress));
+            buffer.putInt(DESTINATION_OFFSET, Util.toInt(destinationAddress));
+            buffer.putShort(WINDOW_OFFSET, (short) 0);
+            buffer.put(OPTIONS_OFFSET, (byte) 0);
+            buffer.putInt(PREVIOUS_HOP_OFFSET, Util.toInt(sourceAddress));
+            buffer.putInt(NEXT_HOP_OFFSET, BROADCAST);
+
             if (data != null) {
-                this.data = data.clone();
-            } else {
-                this.data = new byte[] {};
+                System.arraycopy(data, 0, buffer.array(), MIN_SIZE, dataLength);
             }
         }
     }
 
+    /**
+     * Point this packet at a datagram in the buffer, without copying it. The packet is only valid for as long as
+     * the buffer is not reused.
+     * @param buffer the buffer that holds the datagram
+     * @param offset the position of the datagram in the buffer
+     * @param length the length of the datagram
+     * @return false if the datagram is not a valid packet, in which case this packet is cleared
+     */
+    public boolean wrap(ByteBuffer buffer, int offset, int length) {
+        if (length < MIN_SIZE || buffer.get(offset + FLAGS_OFFSET) < 0) {
+            this.buffer = null;
+            this.length = 0;
+            return false;
+        }
+
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.relayOnly = false;
+        return true;
+    }
+
+    /**
+     * Whether the packet was handled before and only reaches the listeners to decide whether to relay it.
+     */
+    public boolean isRelayOnly() {
+        return relayOnly;
+    }
+
+    public void setRelayOnly(boolean relayOnly) {
+        this.relayOnly = relayOnly;
+    }
+
     public boolean isAck() {
-        return (flags & ACK_MASK) > 0;
+        return (getFlags() & ACK_MASK) > 0;
     }
 
     public boolean isSyn() {
-        return (flags & SYN_MASK) > 0;
+        return (getFlags() & SYN_MASK) > 0;
     }
 
     public boolean isAnnounce() {
-        return (flags & ANNOUNCE_MASK) > 0;
+        return (getFlags() & ANNOUNCE_MASK) > 0;
+    }
+
+    public boolean isSelectiveAck() {
+        return (getFlags() & SACK_MASK) > 0;
+    }
+
+    public boolean isGroup() {
+        return (getFlags() & GROUP_MASK) > 0;
+    }
+
+    public boolean isNack() {
+        return (getFlags() & NACK_MASK) > 0;
+    }
+
+    public boolean isParity() {
+        return (getFlags() & PARITY_MASK) > 0;
+    }
+
+    /**
+     * Whether this acknowledgement covers the sequence number, either through the cumulative and selective
+     * acknowledgments or, without the SACK flag, as the single acknowledged number.
+     * @param sequenceNumber the sequence number of a sent packet
+     * @return true if the packet with the sequence number is acknowledged
+     */
+    public boolean acknowledges(int sequenceNumber) {
+        if (!isSelectiveAck()) {
+            return sequenceNumber == getAcknowledgmentNumber();
+        }
+
+        long difference = Util.differenceWithWrapAround(sequenceNumber, getAcknowledgmentNumber());
+
+        if (difference <= 0) {
+            return true;
+        } else if (difference >= 2 && difference < 2 + SACK_BITS) {
+            return (getSelectiveAcknowledgments() & (1 << (difference - 2))) != 0;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Whether this is a negative acknowledgement that reports the packet with the given sequence number missing.
+     */
+    public boolean reportsMissing(int sequenceNumber) {
+        if (!isNack()) {
+            return false;
+        }
+
+        long difference = Util.differenceWithWrapAround(sequenceNumber, getAcknowledgmentNumber());
+        int selective = getSelectiveAcknowledgments();
+        // Everything before the highest selectively acknowledged packet, or only the first missing one without any.
+        int limit = selective == 0 ? 2 : 2 + 31 - Integer.numberOfLeadingZeros(selective);
+
+        return difference > 0 && difference < limit && !acknowledges(sequenceNumber);
     }
 
     public int getNonce() {
-        return nonce;
+        return buffer.getInt(offset + NONCE_OFFSET);
     }
 
     public byte getFlags() {
-        return flags;
+        return buffer.get(offset + FLAGS_OFFSET);
+    }
+
+    public int getHopLimit() {
+        return buffer.get(offset + HOP_LIMIT_OFFSET) & 0xFF;
     }
 
-    public byte getReserved1() {
-        return reserved1;
+    public void setHopLimit(int hopLimit) {
+        buffer.put(offset + HOP_LIMIT_OFFSET, (byte) Math.min(Math.max(hopLimit, 0), 0xFF));
+    }
+
+    /**
+     * Decrement the hop limit in place, before relaying the packet.
+     * @return false if the hop limit was already down to one or less, in which case the packet must not be relayed
+     */
+    public boolean decrementHopLimit() {
+        int hopLimit = getHopLimit();
+
+        if (hopLimit <= 1) {
+            return false;
+        }
+
+        setHopLimit(hopLimit - 1);
+        return true;
     }
 
-    public byte getReserved2() {
-        return reserved2;
+    /**
+     * The number of times an announce was sent to reach this client, which is 1 for a direct neighbour.
+     */
+    public int getHopsTravelled() {
+        return MAX_HOP_LIMIT - getHopLimit() + 1;
     }
 
-    public byte getReserved3() {
-        return reserved3;
+    public int getSelectiveAcknowledgments() {
+        return buffer.getShort(offset + SACK_OFFSET) & 0xFFFF;
     }
 
     public int getSequenceNumber() {
-        return sequenceNumber;
+        return buffer.getInt(offset + SEQUENCE_NUMBER_OFFSET);
     }
 
     public int getAcknowledgmentNumber() {
-        return acknowledgmentNumber;
+        return buffer.getInt(offset + ACKNOWLEDGMENT_NUMBER_OFFSET);
+    }
+
+    /**
+     * The number of data packets the source can still accept.
+     */
+    public int getWindow() {
+        return buffer.getShort(offset + WINDOW_OFFSET) & 0xFFFF;
+    }
+
+    /**
+     * Advertise the space left in the receive queue, on a packet that is about to be sent.
+     * @param window the number of data packets that can still be accepted, capped at {@link #MAX_WINDOW}
+     */
+    public void setWindow(int window) {
+        buffer.putShort(offset + WINDOW_OFFSET, (short) Math.min(Math.max(window, 0), MAX_WINDOW));
+    }
+
+    public byte getOptions() {
+        return buffer.get(offset + OPTIONS_OFFSET);
+    }
+
+    public void setOptions(byte options) {
+        buffer.put(offset + OPTIONS_OFFSET, options);
+    }
+
+    public boolean hasMoreFragments() {
+        return (getOptions() & MORE_FRAGMENTS_OPTION) != 0;
+    }
+
+    public boolean isCompressed() {
+        return (getOptions() & COMPRESSED_OPTION) != 0;
+    }
+
+    /**
+     * The source address as a 32-bit integer, which can be compared without allocating anything.
+     */
+    public int getSource() {
+        return buffer.getInt(offset + SOURCE_OFFSET);
     }
 
     public byte[] getSourceAddress() {
-        return sourceAddress;
+        return Util.toBytes(getSource());
     }
 
     public InetAddress getSourceIp() {
-        try {
-            return InetAddress.getByAddress(getSourceAddress());
-        } catch (UnknownHostException e) {
-            return null;
-        }
+        return Util.toInetAddress(getSource());
+    }
+
+    /**
+     * The destination address as a 32-bit integer, which can be compared without allocating anything.
+     */
+    public int getDestination() {
+        return buffer.getInt(offset + DESTINATION_OFFSET);
+    }
+
+    /**
+     * The address of the client this copy of the packet was received from, as a 32-bit integer.
+     */
+    public int getPreviousHop() {
+        return buffer.getInt(offset + PREVIOUS_HOP_OFFSET);
+    }
+
+    /**
+     * Mark this client as the previous hop, on a copy that is about to be relayed.
+     * @param address the address of the relaying client
+     */
+    public void setPreviousHop(int address) {
+        buffer.putInt(offset + PREVIOUS_HOP_OFFSET, address);
+    }
+
+    /**
+     * The address of the client that should relay the packet, as a 32-bit integer.
+     * @return the next hop, or {@link #BROADCAST} if the packet is flooded
+     */
+    public int getNextHop() {
+        return buffer.getInt(offset + NEXT_HOP_OFFSET);
+    }
+
+    public void setNextHop(int address) {
+        buffer.putInt(offset + NEXT_HOP_OFFSET, address);
     }
 
     public byte[] getDestinationAddress() {
-        return destinationAddress;
+        return Util.toBytes(getDestination());
     }
 
     public InetAddress getDestinationIp() {
-        try {
-            return InetAddress.getByAddress(getDestinationAddress());
-        } catch (UnknownHostException e) {
-            return null;
-        }
+        return Util.toInetAddress(getDestination());
     }
 
+    /**
+     * A copy of the data.
+     */
     public byte[] getData() {
-        return data;
+        byte[] result = new byte[getDataLength()];
+        getPayload().get(result);
+        return result;
+    }
+
+    /**
+     * The data as a view on the underlying buffer, without copying it.
+     */
+    public ByteBuffer getPayload() {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length);
+        payload.position(offset + MIN_SIZE);
+        return payload.slice();
+    }
+
+    public int getDataLength() {
+        return length - MIN_SIZE;
     }
 
     public byte[] getBytes() {
-        ByteBuffer buffer = ByteBuffer.allocate(getLength());
+        if (buffer.hasArray() && buffer.arrayOffset() + offset == 0 && buffer.array().length == length) {
+            return buffer.array();
+        }
 
-        buffer.putInt(nonce);
-        buffer.put(flags);
-        buffer.put((byte) 0); // Reserved 1
-        buffer.put((byte) 0); // Reserved 2
-        buffer.put((byte) 0); // Reserved 3
-        buffer.putInt(sequenceNumber);
-        buffer.putInt(acknowledgmentNumber);
-        buffer.put(sourceAddress);
-        buffer.put(destinationAddress);
-        buffer.put(data);
+        byte[] result = new byte[length];
+        ByteBuffer destination = ByteBuffer.wrap(result);
+        writeTo(destination);
+        return result;
+    }
 
-        return buffer.array();
+    /**
+     * Encode the packet into the buffer at its current position.
+     * @param destination the buffer to write to, which must have at least {@link #getLength()} bytes remaining
+     */
+    public void writeTo(ByteBuffer destination) {
+        if (buffer.hasArray()) {
+            destination.put(buffer.array(), buffer.arrayOffset() + offset, length);
+        } else {
+            ByteBuffer source = buffer.duplicate();
+            source.limit(offset + length);
+            source.position(offset);
+            destination.put(source);
+        }
+    }
+
+    /**
+     * A packet that owns a copy of the bytes of this one, to keep a received packet after its buffer is reused.
+     */
+    public RawPacket copy() {
+        byte[] bytes = new byte[length];
+        writeTo(ByteBuffer.wrap(bytes));
+
+        RawPacket result = new RawPacket();
+        result.wrap(ByteBuffer.wrap(bytes), 0, length);
+        return result;
     }
 
     /**
@@ -209,16 +494,12 @@ public class RawPacket implements Comparable<RawPacket> {
      * @return the length of the packet
      */
     public int getLength() {
-        return MIN_SIZE + data.length;
+        return length;
     }
 
     @Override
     public int hashCode() {
-        ByteBuffer buffer = ByteBuffer.allocate(8);
-        buffer.putInt(nonce);
-        buffer.put(sourceAddress);
-        buffer.rewind();
-        return buffer.hashCode();
+        return 31 * getNonce() + getSource();
     }
 
     public static RawPacket tryParse(byte[] packet) {
@@ -232,7 +513,7 @@ public class RawPacket implements Comparable<RawPacket> {
     }
 
     public static int newNonce() {
-        return (int) System.currentTimeMillis();
+        return lastNonce.incrementAndGet();
     }
 
     @Override
@@ -242,24 +523,40 @@ public class RawPacket implements Comparable<RawPacket> {
         result += isAnnounce() ? "ANN" : "";
         result += isSyn() ? "SYN" : "";
         result += isAck() ? "ACK" : "";
+        result += isSelectiveAck() ? "SACK" : "";
+        result += isNack() ? "NACK" : "";
+        result += isGroup() ? "GRP" : "";
+        result += isParity() ? "PAR" : "";
 
         result += (!result.equals("")) ? ": " : "";
 
         result += "nonce=" + getNonce();
         result += ", seq=" + getSequenceNumber();
         result += ", ack=" + getAcknowledgmentNumber();
-        result += ", len=" + data.length;
+        result += isSelectiveAck() ? ", sack=" + Integer.toBinaryString(getSelectiveAcknowledgments()) : "";
+        result += ", hops=" + getHopLimit();
+        result += ", wnd=" + getWindow();
+        result += ", len=" + getDataLength();
 
         result += ", src=" + getSourceIp();
         result += ", dst=" + getDestinationIp();
+        result += getPreviousHop() != getSource() ? ", via=" + Util.toInetAddress(getPreviousHop()) : "";
+        result += getNextHop() != BROADCAST ? ", next=" + Util.toInetAddress(getNextHop()) : "";
         result += ", data=" + new String(getData());
 
         return result;
     }
 
     public static RawPacket newAnnounce(InetAddress sourceAddress) {
+        return newAnnounce(sourceAddress, null);
+    }
+
+    /**
+     * An announce that carries data for the clients that receive it, such as the list of neighbours.
+     */
+    public static RawPacket newAnnounce(InetAddress sourceAddress, byte[] data) {
         try {
-            return new RawPacket(newNonce(), ANNOUNCE_MASK, 0, 0, sourceAddress.getAddress(), BROADCAST_ADDRESS);
+            return new RawPacket(newNonce(), ANNOUNCE_MASK, 0, 0, sourceAddress.getAddress(), BROADCAST_ADDRESS, data);
         } catch(InvalidPacketException e) {
             return null;
         }
@@ -289,6 +586,19 @@ public class RawPacket implements Comparable<RawPacket> {
         }
     }
 
+    /**
+     * A data packet that also carries a cumulative and selective acknowledgement for the destination.
+     */
+    public static RawPacket newData(int sequenceNumber, InetAddress sourceAddress, InetAddress destinationAddress, byte[] data,
+                                    int acknowledgmentNumber, int selectiveAcknowledgments) {
+        try {
+            return new RawPacket(newNonce(), SACK_MASK, selectiveAcknowledgments, sequenceNumber, acknowledgmentNumber,
+                    sourceAddress.getAddress(), destinationAddress.getAddress(), data);
+        } catch(InvalidPacketException e) {
+            return null;
+        }
+    }
+
     public static RawPacket newAcknowledgement(int acknowledgmentNumber, InetAddress sourceAddress, InetAddress destinationAddress) {
         try {
             return new RawPacket(newNonce(), ACK_MASK, 0, acknowledgmentNumber, sourceAddress, destinationAddress);
@@ -297,20 +607,82 @@ public class RawPacket implements Comparable<RawPacket> {
         }
     }
 
-    public RawPacket duplicate() {
+    /**
+     * A cumulative acknowledgement with a bitmap of the packets after the first missing one that were received.
+     */
+    public static RawPacket newSelectiveAcknowledgement(int acknowledgmentNumber, int selectiveAcknowledgments, InetAddress sourceAddress, InetAddress destinationAddress) {
         try {
-            return new RawPacket(newNonce(), flags, sequenceNumber, acknowledgmentNumber, sourceAddress, destinationAddress, data);
+            return new RawPacket(newNonce(), (byte) (ACK_MASK | SACK_MASK), selectiveAcknowledgments, 0, acknowledgmentNumber,
+                    sourceAddress.getAddress(), destinationAddress.getAddress(), null);
         } catch(InvalidPacketException e) {
             return null;
         }
     }
 
-    @Override
-    public int compareTo(RawPacket rawPacket) {
-        if(Util.differenceWithWrapAround(getSequenceNumber(), rawPacket.getSequenceNumber()) < 1) {
-            return -1;
-        } else {
-            return 1;
+    /**
+     * A selective acknowledgement that asks for the packets it reports missing to be retransmitted immediately.
+     * @param group whether the acknowledgement is for group packets
+     */
+    public static RawPacket newNegativeAcknowledgement(int acknowledgmentNumber, int selectiveAcknowledgments, boolean group,
+                                                       InetAddress sourceAddress, InetAddress destinationAddress) {
+        byte flags = (byte) (ACK_MASK | SACK_MASK | NACK_MASK | (group ? GROUP_MASK : 0));
+
+        try {
+            return new RawPacket(newNonce(), flags, selectiveAcknowledgments, 0, acknowledgmentNumber,
+                    sourceAddress.getAddress(), destinationAddress.getAddress(), null);
+        } catch(InvalidPacketException e) {
+            return null;
         }
     }
+
+    /**
+     * A data packet in the group sequence number space, sent to the whole group or addressed to one receiver.
+     * @param base the oldest group sequence number that is not acknowledged by all receivers yet
+     * @param destinationAddress the receiver, or {@link #BROADCAST}
+     */
+    public static RawPacket newGroupData(int sequenceNumber, int base, InetAddress sourceAddress, int destinationAddress, byte[] data) {
+        try {
+            return new RawPacket(newNonce(), GROUP_MASK, 0, sequenceNumber, base,
+                    sourceAddress.getAddress(), Util.toBytes(destinationAddress), data);
+        } catch(InvalidPacketException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The parity of a block of data packets.
+     * @param sequenceNumber the sequence number of the first packet of the block
+     * @param count the number of packets in the block
+     * @param group whether the block consists of group packets
+     * @param destinationAddress the destination of the block, or {@link #BROADCAST}
+     */
+    public static RawPacket newParity(int sequenceNumber, int count, boolean group, InetAddress sourceAddress,
+                                      int destinationAddress, byte[] data) {
+        byte flags = (byte) (PARITY_MASK | (group ? GROUP_MASK : 0));
+
+        try {
+            return new RawPacket(newNonce(), flags, 0, sequenceNumber, count,
+                    sourceAddress.getAddress(), Util.toBytes(destinationAddress), data);
+        } catch(InvalidPacketException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A cumulative and selective acknowledgement of group packets.
+     */
+    public static RawPacket newGroupAcknowledgement(int acknowledgmentNumber, int selectiveAcknowledgments, InetAddress sourceAddress, InetAddress destinationAddress) {
+        try {
+            return new RawPacket(newNonce(), (byte) (ACK_MASK | SACK_MASK | GROUP_MASK), selectiveAcknowledgments, 0, acknowledgmentNumber,
+                    sourceAddress.getAddress(), destinationAddress.getAddress(), null);
+        } catch(InvalidPacketException e) {
+            return null;
+        }
+    }
+
+    public RawPacket duplicate() {
+        RawPacket result = copy();
+        result.buffer.putInt(NONCE_OFFSET, newNonce());
+        return result;
+    }
 }
@@ -0,0 +1,12 @@
+package transport_v2;
+
+public interface ReceiveListener {
+
+    /**
+     * Called for every packet delivered in order, on a receive worker thread. Listeners should return quickly, because
+     * the worker also handles other peers.
+     * @param packet the received packet
+     */
+    public void onReceive(Packet packet);
+
+}
@@ -0,0 +1,85 @@
+package transport_v2;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handles received packets on a pool of worker threads, so the thread that reads from the network is never held up by
+ * a listener.
+ *
+ * Packets are striped over the workers by their source address. All packets from one peer are handled by the same
+ * worker in the order they were received, while packets from different peers are handled in parallel.
+ */
+public class ReceiveWorkerPool {
+    private final Worker[] workers;
+    private final PacketListener listener;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param threads the number of worker threads
+     * @param queueCapacity the number of packets that may wait for each worker
+     * @param listener the listener that is called for every packet on a worker thread
+     */
+    public ReceiveWorkerPool(int threads, int queueCapacity, PacketListener listener) {
+        this.listener = listener;
+        this.workers = new Worker[Math.max(threads, 1)];
+
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(queueCapacity);
+            workers[i].setName("ReceiveWorker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queue a packet on the worker for its source.
+     * @param packet the packet, which must not be a view on a buffer that is reused
+     * @return false if the worker's queue is full and the packet was dropped
+     */
+    public boolean submit(RawPacket packet) {
+        int hash = packet.getSource() * 0x9E3779B9;
+        Worker worker = workers[(hash >>> 16) % workers.length];
+
+        if (!worker.queue.offer(packet)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The number of packets dropped because a worker could not keep up.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private class Worker extends Thread {
+        private final ArrayBlockingQueue<RawPacket> queue;
+
+        private Worker(int queueCapacity) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                RawPacket packet;
+
+                try {
+                    packet = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    listener.onPacketReceived(packet);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -1,66 +1,62 @@
 package transport_v2;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.MulticastSocket;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.EnumSet;
 
 public class ReceiverThread extends Thread {
-    private final MulticastSocket transport;
+    private final Transport transport;
     private final SocketImpl socket;
 
-    private final HashSet<PacketListener> listeners = new HashSet<>();
-    private final HashSet<Integer> handledPackets = new HashSet<>();
+    private final PacketDispatcher dispatcher;
+    private final ReceiveWorkerPool workers;
 
-    public ReceiverThread(MulticastSocket transport, SocketImpl socket) {
+    public ReceiverThread(Transport transport, SocketImpl socket, DuplicateFilter handledPackets, int workerCount, int workerQueueCapacity) {
         this.transport = transport;
         this.socket = socket;
+        this.dispatcher = new PacketDispatcher(socket, handledPackets);
+        this.workers = new ReceiveWorkerPool(workerCount, workerQueueCapacity, dispatcher);
     }
 
-    public void addPacketListener(PacketListener listener) {
-        synchronized (listeners) {
-            listeners.add(listener);
-        }
+    /**
+     * Register a listener for the packets of the given kinds.
+     * @param listener the listener
+     * @param first a kind of packet to receive
+     * @param rest more kinds of packets to receive
+     */
+    public void addPacketListener(PacketListener listener, PacketKind first, PacketKind... rest) {
+        dispatcher.addPacketListener(listener, EnumSet.of(first, rest));
     }
 
     public void removePacketListener(PacketListener listener) {
-        synchronized (listeners) {
-            listeners.remove(listener);
-        }
+        dispatcher.removePacketListener(listener);
+    }
+
+    public ReceiveWorkerPool getWorkers() {
+        return workers;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void run() {
-        byte[] buffer = new byte[1 << 16];
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        // The same packet is reused for every datagram, it is filtered in place and only the packets that a listener
+        // needs are copied, once, for the workers. A duplicate is copied only when it may be the copy this node has to
+        // relay.
+        RawPacket rawPacket = new RawPacket();
 
         try {
             while (true) {
-                transport.receive(packet);
-
-                RawPacket rawPacket = RawPacket.tryParse(Arrays.copyOfRange(packet.getData(), 0, packet.getLength()));
-
-                if(rawPacket == null || rawPacket.getSourceIp().equals(socket.getIp()) || handledPackets.contains(rawPacket.hashCode())) {
+                if(!transport.receive(rawPacket) || rawPacket.getSource() == socket.getAddress()) {
                     continue;
                 }
 
-                System.out.println("received " + rawPacket);
-
-                Iterable<PacketListener> listenersCopy;
+                int targets = dispatcher.route(rawPacket);
 
-                synchronized (listeners) {
-                    listenersCopy = (Iterable<PacketListener>) listeners.clone();
-                }
-
-                for(PacketListener listener : listenersCopy) {
-                    listener.onPacketReceived(rawPacket);
+                if (targets == PacketDispatcher.NONE) {
+                    continue;
                 }
 
-                handledPackets.add(rawPacket.hashCode());
+                RawPacket packet = rawPacket.copy();
+                packet.setRelayOnly(targets == PacketDispatcher.RELAY);
+                workers.submit(packet);
             }
         } catch (IOException e) {
             e.printStackTrace();
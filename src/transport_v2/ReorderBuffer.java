@@ -0,0 +1,165 @@
+package transport_v2;
+
+/**
+ * Holds the packets from one source that arrived ahead of the next expected sequence number, until the gap before them
+ * is filled.
+ *
+ * Packets are kept in a ring indexed by their sequence number modulo the capacity, so adding a packet and taking the
+ * next in order one are constant time and allocate nothing. Packets further ahead than the capacity do not fit and are
+ * rejected; the sender retransmits them once the window has moved on.
+ *
+ * Not thread safe, all packets from one source are handled by the same receive worker.
+ */
+public class ReorderBuffer {
+    private final RawPacket[] slots;
+    private final int mask;
+
+    private int lastInOrderSequenceNumber;
+    private int highestSequenceNumber;
+    private int count = 0;
+
+    /**
+     * @param capacity the number of sequence numbers after the last in order one that can be buffered, rounded up to
+     *                 a power of two
+     * @param lastInOrderSequenceNumber the sequence number of the last packet that was delivered
+     */
+    public ReorderBuffer(int capacity, int lastInOrderSequenceNumber) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1);
+
+        this.slots = new RawPacket[size];
+        this.mask = size - 1;
+        this.lastInOrderSequenceNumber = lastInOrderSequenceNumber;
+        this.highestSequenceNumber = lastInOrderSequenceNumber;
+    }
+
+    /**
+     * Buffer a packet, which must not be a view on a buffer that is reused.
+     * @param packet the packet
+     * @return false if the packet is too far ahead to fit, true if it is buffered or was buffered or delivered before
+     */
+    public boolean add(RawPacket packet) {
+        long difference = Util.differenceWithWrapAround(packet.getSequenceNumber(), lastInOrderSequenceNumber);
+
+        if (difference <= 0) {
+            return true;
+        }
+
+        if (difference > slots.length) {
+            return false;
+        }
+
+        int slot = packet.getSequenceNumber() & mask;
+
+        if (slots[slot] == null) {
+            slots[slot] = packet;
+
+            if (count == 0 || Util.differenceWithWrapAround(packet.getSequenceNumber(), highestSequenceNumber) > 0) {
+                highestSequenceNumber = packet.getSequenceNumber();
+            }
+
+            count++;
+        }
+
+        return true;
+    }
+
+    /**
+     * The packet directly after the last in order one, without taking it.
+     * @return the packet, or null if there is a gap
+     */
+    public RawPacket peek() {
+        return slots[(lastInOrderSequenceNumber + 1) & mask];
+    }
+
+    /**
+     * Take the packet directly after the last in order one, if it was received.
+     * @return the packet, or null if there is a gap
+     */
+    public RawPacket poll() {
+        int next = lastInOrderSequenceNumber + 1;
+        int slot = next & mask;
+        RawPacket packet = slots[slot];
+
+        if (packet == null) {
+            return null;
+        }
+
+        slots[slot] = null;
+        lastInOrderSequenceNumber = next;
+        count--;
+        return packet;
+    }
+
+    /**
+     * Give up on the sequence numbers up to and including the given one. Packets buffered up to it are dropped, those
+     * after it are kept. Nothing changes if it is not ahead of the last in order sequence number.
+     * @param sequenceNumber the new last in order sequence number
+     * @return the number of buffered packets that were dropped
+     */
+    public int skipTo(int sequenceNumber) {
+        long difference = Util.differenceWithWrapAround(sequenceNumber, lastInOrderSequenceNumber);
+
+        if (difference <= 0) {
+            return 0;
+        }
+
+        int before = count;
+
+        for (long i = 1; i <= Math.min(difference, slots.length) && count > 0; i++) {
+            int slot = (int) (lastInOrderSequenceNumber + i) & mask;
+
+            if (slots[slot] != null) {
+                slots[slot] = null;
+                count--;
+            }
+        }
+
+        lastInOrderSequenceNumber = sequenceNumber;
+
+        if (count == 0) {
+            highestSequenceNumber = sequenceNumber;
+        }
+
+        return before - count;
+    }
+
+    /**
+     * Which of the sequence numbers after the one directly following the last in order one are buffered.
+     * @param bits the number of sequence numbers to check
+     * @return a bitmap where bit i is set if sequence number last in order + 2 + i is buffered
+     */
+    public int getSelectiveBits(int bits) {
+        int selective = 0;
+
+        for (int i = 0; i < bits && i + 2 <= slots.length && count > 0; i++) {
+            if (slots[(lastInOrderSequenceNumber + 2 + i) & mask] != null) {
+                selective |= 1 << i;
+            }
+        }
+
+        return selective;
+    }
+
+    public int getLastInOrderSequenceNumber() {
+        return lastInOrderSequenceNumber;
+    }
+
+    /**
+     * @return the highest buffered sequence number, only meaningful if the buffer is not empty
+     */
+    public int getHighestSequenceNumber() {
+        return highestSequenceNumber;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,101 @@
+package transport_v2;
+
+/**
+ * Knows through which neighbour each peer is reached, so packets to a peer further away are relayed only by the
+ * clients on the path to it instead of being flooded.
+ *
+ * Routes are learned from announces. Announces are flooded and only the first copy of each gets past the duplicate
+ * filter, so the neighbour that copy came from is on the fastest path back to its source. A route expires when no
+ * announce refreshes it, when its destination or next hop leaves the network, or when packets sent along it have to be
+ * retransmitted. Without a route packets are flooded as before.
+ */
+public class RoutingTable {
+    private final PeerTable peers;
+    private final long lifetime;
+
+    /**
+     * @param peers the peers to keep the routes of
+     * @param lifetime how long a route stays valid without being refreshed, in milliseconds
+     */
+    public RoutingTable(PeerTable peers, long lifetime) {
+        this.peers = peers;
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * Learn the route to the source of an announce.
+     * @param peer the source of the announce
+     * @param announce the first copy of the announce that was received
+     */
+    public void learn(Peer peer, RawPacket announce) {
+        peer.setRoute(new Route(announce.getPreviousHop(), announce.getHopsTravelled(), System.currentTimeMillis() + lifetime));
+    }
+
+    /**
+     * @param destination the address of the destination
+     * @return the neighbour to send packets for the destination to, or {@link RawPacket#BROADCAST} to flood them
+     */
+    public int getNextHop(int destination) {
+        Peer peer = peers.get(destination);
+        Route route = peer == null ? null : peer.getRoute();
+
+        if (route == null || route.expiry < System.currentTimeMillis()) {
+            return RawPacket.BROADCAST;
+        }
+
+        return route.nextHop;
+    }
+
+    /**
+     * Forget the route to the destination, for instance because packets sent along it got lost.
+     * @param destination the address of the destination
+     */
+    public void invalidate(int destination) {
+        Peer peer = peers.get(destination);
+
+        if (peer != null) {
+            peer.setRoute(null);
+        }
+    }
+
+    /**
+     * Forget every route through a neighbour that left the network.
+     * @param nextHop the address of the neighbour
+     */
+    public void invalidateVia(int nextHop) {
+        for (Peer peer : peers.getPeers()) {
+            Route route = peer.getRoute();
+
+            if (route != null && route.nextHop == nextHop) {
+                peer.setRoute(null);
+            }
+        }
+    }
+
+    /**
+     * A route to a peer. Immutable, so it can be replaced as a whole without locking.
+     */
+    public static class Route {
+        private final int nextHop;
+        private final int distance;
+        private final long expiry;
+
+        public Route(int nextHop, int distance, long expiry) {
+            this.nextHop = nextHop;
+            this.distance = distance;
+            this.expiry = expiry;
+        }
+
+        public int getNextHop() {
+            return nextHop;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+
+        public long getExpiry() {
+            return expiry;
+        }
+    }
+}
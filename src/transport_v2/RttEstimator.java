@@ -0,0 +1,74 @@
+package transport_v2;
+
+/**
+ * Estimates the round trip time to a single peer and derives the retransmission timeout from it, following the
+ * smoothed RTT and RTT variance calculation of TCP (RFC 6298).
+ */
+public class RttEstimator {
+    public static final long INITIAL_TIMEOUT = 1000;
+    public static final long MIN_TIMEOUT = 200;
+    public static final long MAX_TIMEOUT = 30 * 1000;
+
+    private static final double ALPHA = 1.0 / 8.0;
+    private static final double BETA = 1.0 / 4.0;
+    private static final int K = 4;
+
+    private final long granularity;
+    private boolean hasSample = false;
+    private double smoothedRtt;
+    private double rttVariance;
+    private long timeout = INITIAL_TIMEOUT;
+
+    /**
+     * @param granularity the resolution of the retransmission timer in milliseconds
+     */
+    public RttEstimator(long granularity) {
+        this.granularity = granularity;
+    }
+
+    /**
+     * Add a measurement. Only use packets that were not retransmitted, as the acknowledgement of a retransmitted
+     * packet cannot be matched to a single transmission.
+     * @param rtt the time between sending a packet and receiving its acknowledgement in milliseconds
+     */
+    public synchronized void addSample(long rtt) {
+        if (!hasSample) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2.0;
+            hasSample = true;
+        } else {
+            rttVariance = (1 - BETA) * rttVariance + BETA * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rtt;
+        }
+
+        long result = (long) Math.ceil(smoothedRtt + Math.max(granularity, K * rttVariance));
+        timeout = Math.min(Math.max(result, MIN_TIMEOUT), MAX_TIMEOUT);
+    }
+
+    public synchronized long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * The timeout for a packet that has already been retransmitted, doubled for every earlier attempt.
+     * @param attempt the number of earlier transmissions of the packet
+     * @return the timeout in milliseconds
+     */
+    public synchronized long getTimeout(int attempt) {
+        long result = timeout;
+
+        for (int i = 0; i < attempt && result < MAX_TIMEOUT; i++) {
+            result *= 2;
+        }
+
+        return Math.min(result, MAX_TIMEOUT);
+    }
+
+    public synchronized double getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    public synchronized double getRttVariance() {
+        return rttVariance;
+    }
+}
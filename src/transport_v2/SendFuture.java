@@ -0,0 +1,195 @@
+package transport_v2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The result of an asynchronous send, which completes when the data is acknowledged or fails when the retries run out
+ * or the destination leaves the network.
+ *
+ * Instead of blocking on {@link #get()}, callers can register a {@link SendListener} that is called on completion. A
+ * send cannot be taken back once it is queued, so {@link #cancel(boolean)} never succeeds.
+ */
+public class SendFuture implements Future<Void> {
+    private final List<SendListener> listeners = new ArrayList<>();
+    private boolean done = false;
+    private Throwable cause = null;
+
+    /**
+     * Mark the send as acknowledged. Does nothing if the future is already done.
+     */
+    public void complete() {
+        finish(null);
+    }
+
+    /**
+     * Mark the send as failed. Does nothing if the future is already done.
+     * @param cause why the send failed
+     */
+    public void fail(Throwable cause) {
+        finish(cause);
+    }
+
+    /**
+     * Call the listener when the future is done, or right away if it already is.
+     * @param listener the listener
+     */
+    public void addListener(SendListener listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        }
+
+        listener.onSendComplete(this);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return true if the future is done and the send succeeded
+     */
+    public synchronized boolean isSuccess() {
+        return done && cause == null;
+    }
+
+    /**
+     * @return why the send failed, or null if it succeeded or is not done yet
+     */
+    public synchronized Throwable getCause() {
+        return cause;
+    }
+
+    @Override
+    public synchronized Void get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+
+        return result();
+    }
+
+    @Override
+    public synchronized Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+
+        while (!done) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+
+            wait(remaining);
+        }
+
+        return result();
+    }
+
+    private Void result() throws ExecutionException {
+        if (cause != null) {
+            throw new ExecutionException(cause);
+        }
+
+        return null;
+    }
+
+    private void finish(Throwable cause) {
+        List<SendListener> toNotify;
+
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+
+            this.done = true;
+            this.cause = cause;
+            toNotify = new ArrayList<>(listeners);
+            listeners.clear();
+            notifyAll();
+        }
+
+        for (SendListener listener : toNotify) {
+            try {
+                listener.onSendComplete(this);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A future that completes when all the futures have succeeded, or fails with the first failure once they are all
+     * done.
+     * @param futures the futures to combine
+     * @return the combined future
+     */
+    public static SendFuture all(Collection<SendFuture> futures) {
+        final SendFuture result = new SendFuture();
+
+        if (futures.isEmpty()) {
+            result.complete();
+            return result;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        final List<Throwable> failures = new ArrayList<>(1);
+
+        for (SendFuture future : futures) {
+            future.addListener(new SendListener() {
+                @Override
+                public void onSendComplete(SendFuture future) {
+                    if (!future.isSuccess()) {
+                        synchronized (failures) {
+                            failures.add(future.getCause());
+                        }
+                    }
+
+                    if (remaining.decrementAndGet() == 0) {
+                        synchronized (failures) {
+                            if (failures.isEmpty()) {
+                                result.complete();
+                            } else {
+                                result.fail(failures.get(0));
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /**
+     * A future that has already failed.
+     * @param cause why the send failed
+     * @return the failed future
+     */
+    public static SendFuture failed(IOException cause) {
+        SendFuture result = new SendFuture();
+        result.fail(cause);
+        return result;
+    }
+}
@@ -0,0 +1,11 @@
+package transport_v2;
+
+public interface SendListener {
+
+    /**
+     * Called once the send is acknowledged or has failed, on the thread that completed it. Listeners must not block.
+     * @param future the completed send
+     */
+    public void onSendComplete(SendFuture future);
+
+}
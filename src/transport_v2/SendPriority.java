@@ -0,0 +1,46 @@
+package transport_v2;
+
+/**
+ * The queues of the {@link SenderThread}, from the most to the least urgent.
+ */
+public enum SendPriority {
+    /**
+     * Acknowledgements, handshakes and announces, both our own and relayed ones. Delaying these makes peers
+     * retransmit or drop each other.
+     */
+    CONTROL,
+
+    /**
+     * Small data packets sent by this socket.
+     */
+    INTERACTIVE,
+
+    /**
+     * Large data packets sent by this socket and data packets relayed for other clients.
+     */
+    BULK;
+
+    /**
+     * The largest amount of data a packet can carry and still count as interactive.
+     */
+    public static final int MAX_INTERACTIVE_DATA = 1024;
+
+    /**
+     * @param packet the packet to send
+     * @param address the address of the sending socket
+     * @return the queue the packet belongs in
+     */
+    public static SendPriority of(RawPacket packet, int address) {
+        // The kind comes first: a relayed acknowledgement is just as urgent for the two peers it is between. NACKs are
+        // acknowledgements as well.
+        if (packet.isAck() || packet.isSyn() || packet.isAnnounce()) {
+            return CONTROL;
+        } else if (packet.getSource() != address) {
+            return BULK;
+        } else if (packet.getDataLength() <= MAX_INTERACTIVE_DATA) {
+            return INTERACTIVE;
+        } else {
+            return BULK;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package transport_v2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps track of the data packets that are sent to a single peer but not yet acknowledged, and limits how many of
+ * those may be in flight at the same time.
+ *
+ * The limit is the smaller of the configured size and the window the peer advertises. A window of zero still allows
+ * one packet in flight, which probes the peer until it has room again.
+ *
+ * Asynchronous sends that do not fit wait in a queue instead of blocking the caller. Blocking sends wait until that
+ * queue is empty as well, so a thread that mixes both sends its data in order.
+ */
+public class SendWindow {
+    private final int size;
+    // Only the sequence numbers matter, the value is always TRUE so adding one does not box anything.
+    private final IntHashMap<Boolean> inFlight = new IntHashMap<>();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private int peerWindow = Integer.MAX_VALUE;
+
+    public SendWindow(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Wait until there is room for another packet in the window.
+     * @param timeout the maximum time to wait in milliseconds, 0 to fail immediately when the window is full
+     * @throws IOException if the window is still full after the timeout
+     */
+    public synchronized void awaitSpace(long timeout) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (inFlight.size() >= getLimit() || !pending.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0) {
+                throw new IOException("Send window full");
+            }
+
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the send window");
+            }
+        }
+    }
+
+    /**
+     * Queue data to be sent once there is room in the window.
+     */
+    public synchronized void enqueue(byte[] data, byte options, SendFuture future) {
+        pending.add(new Pending(data, options, future));
+    }
+
+    /**
+     * Queue the fragments of a message. The queue is taken in order under the window's lock, so the fragments get
+     * consecutive sequence numbers.
+     * @param options the options of the message, every fragment but the last also gets
+     *                {@link RawPacket#MORE_FRAGMENTS_OPTION}
+     * @return a future that completes when all fragments are acknowledged
+     */
+    public synchronized SendFuture enqueueFragments(List<byte[]> fragments, byte options) {
+        List<SendFuture> futures = new ArrayList<>();
+
+        for (int i = 0; i < fragments.size(); i++) {
+            SendFuture future = new SendFuture();
+            byte fragmentOptions = i < fragments.size() - 1 ? (byte) (options | RawPacket.MORE_FRAGMENTS_OPTION) : options;
+            pending.add(new Pending(fragments.get(i), fragmentOptions, future));
+            futures.add(future);
+        }
+
+        return SendFuture.all(futures);
+    }
+
+    /**
+     * Take the first queued send, if there is room to send it.
+     * @return the queued send, or null if the window is full or nothing is queued
+     */
+    public synchronized Pending pollPending() {
+        return inFlight.size() < getLimit() ? pending.poll() : null;
+    }
+
+    /**
+     * Remove all queued sends.
+     * @param destination the collection to add the removed sends to
+     */
+    public synchronized void drainPending(Collection<Pending> destination) {
+        destination.addAll(pending);
+        pending.clear();
+        notifyAll();
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized void add(int sequenceNumber) {
+        inFlight.put(sequenceNumber, Boolean.TRUE);
+    }
+
+    public synchronized boolean remove(int sequenceNumber) {
+        if (inFlight.remove(sequenceNumber) != null) {
+            notifyAll();
+            return true;
+        }
+
+        return false;
+    }
+
+    public synchronized void clear() {
+        inFlight.clear();
+        notifyAll();
+    }
+
+    /**
+     * Update the number of packets the peer said it can still accept.
+     * @param window the window advertised by the peer
+     */
+    public synchronized void setPeerWindow(int window) {
+        if (window > peerWindow) {
+            notifyAll();
+        }
+
+        peerWindow = window;
+    }
+
+    public synchronized int getPeerWindow() {
+        return peerWindow;
+    }
+
+    /**
+     * The number of packets that may currently be in flight.
+     */
+    public synchronized int getLimit() {
+        return Math.min(size, Math.max(peerWindow, 1));
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Data passed to an asynchronous send that waits for room in the window.
+     */
+    public static class Pending {
+        private final byte[] data;
+        private final byte options;
+        private final SendFuture future;
+
+        private Pending(byte[] data, byte options, SendFuture future) {
+            this.data = data;
+            this.options = options;
+            this.future = future;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * The options for the packet that carries the data.
+         */
+        public byte getOptions() {
+            return options;
+        }
+
+        public SendFuture getFuture() {
+            return future;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package transport_v2;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends all outgoing packets on a single thread, taking them from a queue per {@link SendPriority}.
+ *
+ * Bulk packets, which include everything relayed for other clients, are queued per source in a {@link FairQueue}, so
+ * a single chatty client cannot take all of the capacity for relaying.
+ *
+ * Data packets of this socket are never dropped: their number is limited by the send windows, which block the caller
+ * or queue its data when they are full. Only packets from other clients and this socket's own control packets are
+ * dropped when their queue is full.
+ *
+ * The thread takes a batch of packets from the most urgent queue that is not empty and sends them without holding the
+ * lock, then looks at the queues again. A control packet therefore waits for at most one batch, however much data is
+ * queued. Callers only queue the packet, so handlers and timers never block on the network.
+ */
+public class SenderThread extends Thread {
+    private static final int BATCH_SIZE = 16;
+
+    private final Transport transport;
+    private final SocketImpl socket;
+    private final ArrayDeque<RawPacket>[] queues;
+    private final int queueCapacity;
+    private final FairQueue bulk;
+    // Packets dropped from the control and interactive queues, the fair queue counts the bulk ones itself.
+    private final AtomicLong[] dropped = new AtomicLong[SendPriority.BULK.ordinal()];
+
+    /**
+     * @param transport the transport to send with
+     * @param socket the socket whose receive window is filled into its own packets
+     * @param queueCapacity the number of packets that may wait in the control and interactive queues
+     * @param quantum the number of bytes each source may send per bulk round
+     * @param byteBudget the number of bytes each source may have waiting in the bulk queue
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SenderThread(Transport transport, SocketImpl socket, int queueCapacity, int quantum, int byteBudget) {
+        this.transport = transport;
+        this.socket = socket;
+        this.queueCapacity = queueCapacity;
+        this.bulk = new FairQueue(quantum, byteBudget);
+        this.queues = new ArrayDeque[SendPriority.BULK.ordinal()];
+
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+            dropped[i] = new AtomicLong();
+        }
+
+        setName("Sender");
+        setDaemon(true);
+    }
+
+    /**
+     * Queue a packet to be sent.
+     * @param packet the packet, which must not be modified afterwards
+     * @return false if its queue is full and the packet was dropped
+     */
+    public boolean send(RawPacket packet) {
+        SendPriority priority = SendPriority.of(packet, socket.getAddress());
+        boolean ownData = priority != SendPriority.CONTROL && packet.getSource() == socket.getAddress();
+
+        synchronized (queues) {
+            if (priority == SendPriority.BULK) {
+                if (!bulk.add(packet, !ownData)) {
+                    return false;
+                }
+
+                queues.notify();
+                return true;
+            }
+
+            ArrayDeque<RawPacket> queue = queues[priority.ordinal()];
+
+            if (!ownData && queue.size() >= queueCapacity) {
+                dropped[priority.ordinal()].incrementAndGet();
+                return false;
+            }
+
+            queue.add(packet);
+            queues.notify();
+        }
+
+        return true;
+    }
+
+    /**
+     * The number of packets dropped because their queue was full or their source used up its bulk budget.
+     */
+    public long getDropped() {
+        long result = 0;
+
+        for (SendPriority priority : SendPriority.values()) {
+            result += getDropped(priority);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param priority the queue
+     * @return the number of packets dropped because the queue was full, or for bulk packets because their source used
+     *         up its budget
+     */
+    public long getDropped(SendPriority priority) {
+        if (priority != SendPriority.BULK) {
+            return dropped[priority.ordinal()].get();
+        }
+
+        synchronized (queues) {
+            return bulk.getDropped();
+        }
+    }
+
+    /**
+     * @param source the source address
+     * @return the number of bulk packets from the source that were dropped, see {@link FairQueue#getDropped(int)}
+     */
+    public long getBulkDropped(int source) {
+        synchronized (queues) {
+            return bulk.getDropped(source);
+        }
+    }
+
+    /**
+     * @param byteBudget the number of bytes each source may have waiting in the bulk queue
+     */
+    public void setBulkByteBudget(int byteBudget) {
+        synchronized (queues) {
+            bulk.setByteBudget(byteBudget);
+        }
+    }
+
+    /**
+     * @return the number of packets waiting in the queue
+     */
+    public int getQueued(SendPriority priority) {
+        synchronized (queues) {
+            return priority == SendPriority.BULK ? bulk.size() : queues[priority.ordinal()].size();
+        }
+    }
+
+    @Override
+    public void run() {
+        RawPacket[] batch = new RawPacket[BATCH_SIZE];
+
+        while (true) {
+            int count = 0;
+
+            synchronized (queues) {
+                try {
+                    while ((count = takeBatch(batch)) == 0) {
+                        queues.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                RawPacket packet = batch[i];
+                batch[i] = null;
+
+                // Filled in as late as possible, so the window is as fresh as it can be.
+                if (packet.getSource() == socket.getAddress()) {
+                    packet.setWindow(socket.getReceiveWindow());
+                }
+
+                try {
+                    transport.send(packet);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private int takeBatch(RawPacket[] batch) {
+        for (ArrayDeque<RawPacket> queue : queues) {
+            int count = 0;
+
+            while (count < batch.length && !queue.isEmpty()) {
+                batch[count++] = queue.poll();
+            }
+
+            if (count > 0) {
+                return count;
+            }
+        }
+
+        int count = 0;
+        RawPacket packet;
+
+        while (count < batch.length && (packet = bulk.poll()) != null) {
+            batch[count++] = packet;
+        }
+
+        return count;
+    }
+}
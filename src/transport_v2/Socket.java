@@ -2,7 +2,9 @@ package transport_v2;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.Observable;
+import java.util.concurrent.TimeUnit;
 
 public abstract class Socket extends Observable {
     protected final int port;
@@ -15,6 +17,38 @@ public abstract class Socket extends Observable {
     public abstract boolean isConnected();
     public abstract void send(byte[] data, InetAddress destination) throws IOException;
     public abstract void broadcast(byte[] data) throws IOException;
+
+    /**
+     * Send data without waiting for room in the send window.
+     * @return a future that completes when the data is acknowledged, or fails when it cannot be delivered
+     */
+    public abstract SendFuture sendAsync(byte[] data, InetAddress destination);
+
+    /**
+     * Send data to every client in the network without waiting for room in their send windows.
+     * @return a future that completes when every client acknowledged the data, or fails if any of them did not
+     */
+    public abstract SendFuture broadcastAsync(byte[] data);
     public abstract Packet receive() throws InterruptedException;
+
+    /**
+     * Wait for a received packet for at most the timeout.
+     * @return the packet, or null if none arrived in time
+     */
+    public abstract Packet poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Take the packets that are already received, without waiting.
+     * @param destination the collection to add the packets to
+     * @param maxPackets the maximum number of packets to take
+     * @return the number of packets taken
+     */
+    public abstract int drainTo(Collection<? super Packet> destination, int maxPackets);
+
+    /**
+     * Deliver received packets to the listener instead of queueing them for {@link #receive()}.
+     * @param listener the listener, or null to queue packets again
+     */
+    public abstract void setReceiveListener(ReceiveListener listener);
     public abstract Iterable<InetAddress> getOtherClients();
 }
\ No newline at end of file
@@ -3,33 +3,113 @@ package transport_v2;
 import java.io.IOException;
 import java.net.*;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class SocketImpl extends Socket {
     public static final int MAX_DATA_SIZE = (1 << 16) - RawPacket.MIN_SIZE;
+    // Messages larger than a fragment are split over several packets.
+    public static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    public static final boolean LOG_PACKETS = false;
 
     private static final long ANNOUNCE_INTERVAL = 30 * 1000;
     private static final int MAX_ANNOUNCE_DROP_COUNT = 3;
-    private static final long RETRANSMIT_INTERVAL = 1 * 1000;
+    // The timeout doubles after every attempt, so with the initial timeout of 1 second a peer that stopped answering
+    // is removed after 1 + 2 + 4 + 8 + 16 = 31 seconds, or sooner once RTT samples brought the timeout down.
     private static final int MAX_RETRANSMIT_COUNT = 5;
+    private static final int HOP_LIMIT_MARGIN = 2;
+    // A packet that needs this many retransmissions is flooded, in case the route it took broke.
+    private static final int ROUTE_RETRANSMIT_THRESHOLD = 2;
+    private static final int DEFAULT_SEND_WINDOW_SIZE = 16;
+    private static final long DEFAULT_SEND_WINDOW_TIMEOUT = 10 * 1000;
+    private static final long DEFAULT_ACKNOWLEDGEMENT_DELAY = 40;
+    private static final int DUPLICATE_FILTER_MEMORY = 64 * 1024;
+    private static final long DUPLICATE_FILTER_EXPIRY = 60 * 1000;
+    private static final int RECEIVE_WORKER_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int RECEIVE_WORKER_QUEUE_CAPACITY = 1024;
+    private static final int REORDER_BUFFER_SIZE = 256;
+    private static final int DEFAULT_RECEIVE_QUEUE_CAPACITY = 1024;
+    private static final int SEND_QUEUE_CAPACITY = 4096;
+    private static final int RELAY_QUANTUM = 1500;
+    private static final int DEFAULT_RELAY_BYTE_BUDGET = 256 * 1024;
+    private static final long TIMER_TICK = 10;
+    private static final int TIMER_WHEEL_SIZE = 512;
     private static final String GROUP = "224.224.224.224";
 
     private final InetAddress ip;
-    private final MulticastSocket transport;
-    private final InetAddress group;
+    private final int address;
+    private final Transport transport;
+    private final SenderThread senderThread;
     private boolean connected = false;
-    private final LinkedBlockingQueue<Packet> receiveQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Packet> receiveQueue;
     private final ReceiverThread receiverThread;
-
-    private final HashMap<InetAddress, Long> timeLastAnnounceReceived = new HashMap<>();
-    private final HashMap<InetAddress, Integer> lastUsedSequenceNumber = new HashMap<>();
-    private final HashMap<InetAddress, HashSet<Integer>> sentButNoAck = new HashMap<>();
-    private final HashMap<InetAddress, HashSet<Integer>> sentSynAckButNoAck = new HashMap<>();
-    private final HashSet<InetAddress> network = new HashSet<>();
+    private final DuplicateFilter duplicateFilter;
+    private final DuplicateFilter relayedPackets;
+    private final TimingWheel timer = new TimingWheel(TIMER_TICK, TIMER_WHEEL_SIZE);
+    private final DelayedAcknowledger acknowledger = new DelayedAcknowledger(this, timer, DEFAULT_ACKNOWLEDGEMENT_DELAY);
+    private final DelayedAcknowledger groupAcknowledger = new DelayedAcknowledger(this, timer, DEFAULT_ACKNOWLEDGEMENT_DELAY, true);
+    private final GroupSender groupSender;
+    private final long sendWindowTimeout;
+    private volatile int parityBlockSize = 0;
+    private volatile boolean compression = true;
+    private final PeerTable peers;
+    private final MultipointRelays relays;
+    private final RoutingTable routes;
+    private final DataHandler dataHandler;
+    private final ParityHandler parityHandler;
 
     public SocketImpl(int port) throws IOException {
+        this(port, DEFAULT_SEND_WINDOW_SIZE, DEFAULT_SEND_WINDOW_TIMEOUT);
+    }
+
+    /**
+     * @param port the port to send and receive on
+     * @param transportType the implementation to send and receive datagrams with
+     */
+    public SocketImpl(int port, TransportType transportType) throws IOException {
+        this(port, DEFAULT_SEND_WINDOW_SIZE, DEFAULT_SEND_WINDOW_TIMEOUT, DUPLICATE_FILTER_MEMORY,
+                DEFAULT_RECEIVE_QUEUE_CAPACITY, OverflowPolicy.REJECT, transportType);
+    }
+
+    /**
+     * @param port the port to send and receive on
+     * @param sendWindowSize the maximum number of unacknowledged data packets per peer
+     * @param sendWindowTimeout how long a send blocks on a full window in milliseconds, 0 to fail immediately
+     */
+    public SocketImpl(int port, int sendWindowSize, long sendWindowTimeout) throws IOException {
+        this(port, sendWindowSize, sendWindowTimeout, DUPLICATE_FILTER_MEMORY);
+    }
+
+    /**
+     * @param port the port to send and receive on
+     * @param sendWindowSize the maximum number of unacknowledged data packets per peer
+     * @param sendWindowTimeout how long a send blocks on a full window in milliseconds, 0 to fail immediately
+     * @param duplicateFilterMemory the number of bytes used to remember which packets were already handled
+     */
+    public SocketImpl(int port, int sendWindowSize, long sendWindowTimeout, int duplicateFilterMemory) throws IOException {
+        this(port, sendWindowSize, sendWindowTimeout, duplicateFilterMemory, DEFAULT_RECEIVE_QUEUE_CAPACITY, OverflowPolicy.REJECT,
+                TransportType.MULTICAST_SOCKET);
+    }
+
+    /**
+     * @param port the port to send and receive on
+     * @param sendWindowSize the maximum number of unacknowledged data packets per peer
+     * @param sendWindowTimeout how long a send blocks on a full window in milliseconds, 0 to fail immediately
+     * @param duplicateFilterMemory the number of bytes used to remember which packets were already handled
+     * @param receiveQueueCapacity the number of received packets that may wait for {@link #receive()}
+     * @param overflowPolicy what to do with received packets when the queue is full
+     * @param transportType the implementation to send and receive datagrams with
+     */
+    public SocketImpl(int port, int sendWindowSize, long sendWindowTimeout, int duplicateFilterMemory,
+                      int receiveQueueCapacity, OverflowPolicy overflowPolicy, TransportType transportType) throws IOException {
         super(port);
-        this.group = InetAddress.getByName(GROUP);
+        this.receiveQueue = new ArrayBlockingQueue<>(receiveQueueCapacity);
+        this.sendWindowTimeout = sendWindowTimeout;
+        this.peers = new PeerTable(sendWindowSize, TIMER_TICK);
+        this.groupSender = new GroupSender(this, timer, peers, sendWindowSize, sendWindowTimeout, MAX_RETRANSMIT_COUNT);
+        this.duplicateFilter = new DuplicateFilter(duplicateFilterMemory, DUPLICATE_FILTER_EXPIRY);
+        this.relayedPackets = new DuplicateFilter(duplicateFilterMemory, DUPLICATE_FILTER_EXPIRY);
 
         InetAddress ip = null;
         NetworkInterface netIF = null;
@@ -55,45 +135,58 @@ public class SocketImpl extends Socket {
             throw new IOException("No suitable interface found");
         }
 
-        transport = new MulticastSocket(port);
-        transport.joinGroup(new InetSocketAddress(group, port), netIF);
+        this.address = Util.toInt(ip);
+        this.relays = new MultipointRelays(peers, address);
+        this.routes = new RoutingTable(peers, ANNOUNCE_INTERVAL * MAX_ANNOUNCE_DROP_COUNT);
+        InetAddress group = InetAddress.getByName(GROUP);
+
+        switch (transportType) {
+            case DATAGRAM_CHANNEL:
+                transport = new ChannelTransport(group, port, netIF);
+                break;
+            default:
+                transport = new MulticastTransport(group, port, netIF);
+        }
 
-        receiverThread = new ReceiverThread(transport, this);
+        senderThread = new SenderThread(transport, this, SEND_QUEUE_CAPACITY, RELAY_QUANTUM, DEFAULT_RELAY_BYTE_BUDGET);
+        receiverThread = new ReceiverThread(transport, this, duplicateFilter, RECEIVE_WORKER_COUNT, RECEIVE_WORKER_QUEUE_CAPACITY);
+        dataHandler = new DataHandler(this, receiveQueue, peers, acknowledger, groupAcknowledger, REORDER_BUFFER_SIZE, overflowPolicy);
+        parityHandler = new ParityHandler(dataHandler);
 
-        receiverThread.addPacketListener(new AnnounceHandler(this, timeLastAnnounceReceived));
-        receiverThread.addPacketListener(new SynchronizationHandler(this, sentSynAckButNoAck));
-        receiverThread.addPacketListener(new BroadcastHandler(this));
-        receiverThread.addPacketListener(new DataHandler(this, receiveQueue, sentButNoAck));
-        receiverThread.addPacketListener(new AcknowledgementHandler(this, sentButNoAck, sentSynAckButNoAck));
+        receiverThread.addPacketListener(new AnnounceHandler(this, peers, relays, routes), PacketKind.ANNOUNCE);
+        receiverThread.addPacketListener(new SynchronizationHandler(this, peers), PacketKind.SYN, PacketKind.SYN_ACK);
+        receiverThread.addPacketListener(new BroadcastHandler(this, relays, routes, relayedPackets), PacketKind.RELAY);
+        receiverThread.addPacketListener(parityHandler, PacketKind.SYN, PacketKind.SYN_ACK, PacketKind.DATA);
+        receiverThread.addPacketListener(new AcknowledgementHandler(this, peers, groupSender), PacketKind.SYN_ACK, PacketKind.ACK);
 
+        senderThread.start();
         receiverThread.start();
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void connect() throws IOException {
-        send(RawPacket.newAnnounce(getIp()));
+        send(RawPacket.newAnnounce(getIp(), relays.encodeNeighbours()));
 
-        new Timer().schedule(new TimerTask() {
+        timer.schedule(new Runnable() {
             @Override
             public void run() {
                 try {
-                    send(RawPacket.newAnnounce(getIp()));
-
-                    synchronized (timeLastAnnounceReceived) {
-                        Iterator<Map.Entry<InetAddress, Long>> it = timeLastAnnounceReceived.entrySet().iterator();
-                        while (it.hasNext()) {
-                            Map.Entry<InetAddress, Long> entry = it.next();
-                            if (System.currentTimeMillis() - entry.getValue() > ANNOUNCE_INTERVAL * MAX_ANNOUNCE_DROP_COUNT) {
-                                it.remove();
-                            }
+                    send(RawPacket.newAnnounce(getIp(), relays.encodeNeighbours()));
+
+                    for (Peer peer : peers.getPeers()) {
+                        long lastAnnounce = peer.getTimeLastAnnounceReceived();
+
+                        if (lastAnnounce != 0 && System.currentTimeMillis() - lastAnnounce > ANNOUNCE_INTERVAL * MAX_ANNOUNCE_DROP_COUNT) {
+                            removeFromNetwork(peer.getIp());
                         }
                     }
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+
+                timer.schedule(this, ANNOUNCE_INTERVAL);
             }
-        }, ANNOUNCE_INTERVAL, ANNOUNCE_INTERVAL);
+        }, ANNOUNCE_INTERVAL);
 
         this.connected = true;
     }
@@ -103,10 +196,46 @@ public class SocketImpl extends Socket {
         return this.connected;
     }
 
+    /**
+     * Queue a packet on the sender thread.
+     * @param packet the packet, which must not be modified afterwards
+     * @throws IOException if the packet was dropped because its send queue is full
+     */
     protected void send(RawPacket packet) throws IOException {
-        System.out.println("send " + packet);
-        DatagramPacket datagram = new DatagramPacket(packet.getBytes(), packet.getLength(), group, port);
-        transport.send(datagram);
+        if (packet.getSource() == address && !packet.isAnnounce()) {
+            packet.setHopLimit(getHopLimit(packet.getDestination()));
+
+            if (packet.getDestination() != RawPacket.BROADCAST) {
+                packet.setNextHop(routes.getNextHop(packet.getDestination()));
+            }
+        }
+
+        if (LOG_PACKETS) {
+            System.out.println("send " + packet);
+        }
+
+        if (!senderThread.send(packet)) {
+            throw new IOException("Send queue full");
+        }
+    }
+
+    /**
+     * The hop limit for packets from this socket: the distance to the destination plus a margin for routes that
+     * change, or the maximum if the distance is not known.
+     * @param destination the destination address, or {@link RawPacket#BROADCAST}
+     * @return the hop limit
+     */
+    protected int getHopLimit(int destination) {
+        int distance;
+
+        if (destination == RawPacket.BROADCAST) {
+            distance = peers.getDiameter();
+        } else {
+            Peer peer = peers.get(destination);
+            distance = peer == null ? 0 : peer.getDistance();
+        }
+
+        return distance == 0 ? RawPacket.MAX_HOP_LIMIT : Math.min(distance + HOP_LIMIT_MARGIN, RawPacket.MAX_HOP_LIMIT);
     }
 
     protected void sendAndAwaitAck(RawPacket packet) throws IOException {
@@ -114,111 +243,427 @@ public class SocketImpl extends Socket {
     }
 
     protected void sendAndRetry(RawPacket packet, int retries) throws IOException {
+        sendAndRetry(packet, retries, null);
+    }
+
+    /**
+     * Send the packet and retransmit it until it is acknowledged, removing the destination from the network when
+     * the retries run out.
+     * @param future the future to complete when the packet is acknowledged, or null
+     * @throws IOException if the first transmission could not be queued, the future then fails with the same exception
+     */
+    protected void sendAndRetry(RawPacket packet, int retries, SendFuture future) throws IOException {
         if(retries <= 0) {
+            if (future != null) {
+                future.fail(new IOException("No acknowledgement from " + packet.getDestinationIp()));
+            }
+
             removeFromNetwork(packet.getDestinationIp());
             return;
         }
 
-        send(packet);
+        Peer peer = peers.getOrCreate(packet.getDestinationIp());
+        int attempt = MAX_RETRANSMIT_COUNT - retries;
 
-        if(!sentButNoAck.containsKey(packet.getDestinationIp())) {
-            sentButNoAck.put(packet.getDestinationIp(), new HashSet<Integer>());
+        if (attempt == ROUTE_RETRANSMIT_THRESHOLD) {
+            routes.invalidate(peer.getAddress());
         }
+        peer.getFragmentSizer().onTransmission(packet, attempt > 0);
 
-        sentButNoAck.get(packet.getDestinationIp()).add(packet.getSequenceNumber());
+        AckAwaitTimerTask task = new AckAwaitTimerTask(this, packet, peer, retries, attempt, future);
+        task.setTimeout(timer.schedule(task, peer.getRttEstimator().getTimeout(attempt)));
 
-        new Timer().schedule(new AckAwaitTimerTask(this, packet, sentButNoAck, retries), RETRANSMIT_INTERVAL);
-    }
+        // Registered before sending, so an acknowledgement that arrives immediately always finds the task.
+        peer.addSentButNoAck(task);
 
-    protected void removeFromNetwork(InetAddress ip) {
-        synchronized(sentButNoAck) {
-            sentButNoAck.remove(ip);
-        }
+        try {
+            send(packet);
+        } catch (IOException e) {
+            if (attempt > 0) {
+                // The packet got out before, and the retransmission timer sends it again until the retries run out.
+                return;
+            }
 
-        synchronized(lastUsedSequenceNumber) {
-            lastUsedSequenceNumber.remove(ip);
+            // The packet never got out, so the caller hears about it. Own data is never dropped by the sender
+            // thread, so this leaves no gap in the sequence numbers; a lost handshake is started again on the next
+            // announce.
+            peer.removeSentButNoAck(packet.getSequenceNumber());
+            peer.getSendWindow().remove(packet.getSequenceNumber());
+            task.abort(e);
+            throw e;
         }
+    }
 
-        synchronized(timeLastAnnounceReceived) {
-            timeLastAnnounceReceived.remove(ip);
-        }
+    protected void removeFromNetwork(InetAddress ip) {
+        Peer peer = peers.remove(ip);
 
-        synchronized(network) {
-            network.remove(ip);
+        if(peer != null) {
+            peer.cancelAll(new IOException("Destination left the network"));
         }
 
+        acknowledger.remove(ip);
+        groupAcknowledger.remove(ip);
+        groupSender.removeReceiver(Util.toInt(ip));
+        routes.invalidateVia(Util.toInt(ip));
+        relays.select();
+
         setChanged();
         notifyObservers();
     }
 
+    /**
+     * Send data to the destination, waiting for room in its send window. A message that is split into fragments only
+     * waits for room for its first fragment, the others are queued behind it.
+     */
     @Override
     public void send(byte[] data, InetAddress destination) throws IOException {
-        if (data.length > MAX_DATA_SIZE) {
+        if (data.length > MAX_MESSAGE_SIZE) {
             throw new IOException("Too much data to send");
         }
 
-        synchronized (network) {
-            if (!network.contains(destination)) {
-                throw new IOException("Destination not in current network");
+        Peer peer = peers.get(destination);
+
+        if (peer == null || !peer.isInNetwork()) {
+            throw new IOException("Destination not in current network");
+        }
+
+        SendWindow window = peer.getSendWindow();
+        byte options = 0;
+        byte[] compressed = compression && peer.isCompression() ? PayloadCompressor.compress(data) : null;
+
+        if (compressed != null) {
+            data = compressed;
+            options = RawPacket.COMPRESSED_OPTION;
+        }
+
+        List<byte[]> fragments = FragmentSizer.split(data, peer.getFragmentSizer().getFragmentSize());
+
+        if (fragments.size() > 1) {
+            synchronized (window) {
+                window.awaitSpace(sendWindowTimeout);
+                window.enqueueFragments(fragments, options);
             }
+
+            sendPending(peer);
+            return;
+        }
+
+        RawPacket packet;
+        RawPacket parity;
+
+        // Waiting for space and claiming a sequence number happen under the window lock, so concurrent senders to
+        // the same peer can neither overfill the window nor reorder their sequence numbers.
+        synchronized (window) {
+            window.awaitSpace(sendWindowTimeout);
+            packet = newDataPacket(data, destination, options);
+            window.add(packet.getSequenceNumber());
+            parity = peer.getParityEncoder().add(packet, parityBlockSize);
         }
 
-        sendAndAwaitAck(RawPacket.newData(newSequenceNumber(destination), getIp(), destination, data));
+        sendAndAwaitAck(packet);
+
+        if (parity != null) {
+            send(parity);
+        }
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public void broadcast(byte[] data) throws IOException {
-        if (data.length > MAX_DATA_SIZE) {
-            throw new IOException("Too much data to send");
+    public SendFuture sendAsync(byte[] data, InetAddress destination) {
+        if (data.length > MAX_MESSAGE_SIZE) {
+            return SendFuture.failed(new IOException("Too much data to send"));
         }
 
-        Iterable<InetAddress> networkClone;
+        Peer peer = peers.get(destination);
 
-        synchronized(network) {
-            networkClone = (Iterable<InetAddress>) network.clone();
+        if (peer == null || !peer.isInNetwork()) {
+            return SendFuture.failed(new IOException("Destination not in current network"));
         }
 
-        for(InetAddress destination : networkClone) {
-            send(data, destination);
+        byte options = 0;
+        byte[] compressed = compression && peer.isCompression() ? PayloadCompressor.compress(data) : null;
+
+        if (compressed != null) {
+            data = compressed;
+            options = RawPacket.COMPRESSED_OPTION;
         }
+
+        List<byte[]> fragments = FragmentSizer.split(data, peer.getFragmentSizer().getFragmentSize());
+        SendFuture future;
+
+        if (fragments.size() > 1) {
+            future = peer.getSendWindow().enqueueFragments(fragments, options);
+        } else {
+            future = new SendFuture();
+            peer.getSendWindow().enqueue(data, options, future);
+        }
+
+        sendPending(peer);
+
+        return future;
     }
 
-    @Override
-    public Packet receive() {
-        try {
-            return receiveQueue.take();
-        } catch(InterruptedException e) {
-            return null;
+    /**
+     * Send the queued asynchronous sends to the peer that fit in its send window.
+     * @param peer the destination
+     */
+    protected void sendPending(Peer peer) {
+        SendWindow window = peer.getSendWindow();
+
+        while (true) {
+            SendWindow.Pending pending;
+            RawPacket packet;
+            RawPacket parity;
+
+            synchronized (window) {
+                pending = window.pollPending();
+
+                if (pending == null) {
+                    return;
+                }
+
+                packet = newDataPacket(pending.getData(), peer.getIp(), pending.getOptions());
+                window.add(packet.getSequenceNumber());
+                parity = peer.getParityEncoder().add(packet, parityBlockSize);
+            }
+
+            try {
+                sendAndRetry(packet, MAX_RETRANSMIT_COUNT, pending.getFuture());
+
+                if (parity != null) {
+                    send(parity);
+                }
+            } catch (IOException e) {
+                // The future of the send failed with the exception, or only the parity packet was lost.
+                e.printStackTrace();
+            }
         }
     }
 
+    /**
+     * A data packet with the next sequence number for the destination, carrying the acknowledgement that is held
+     * back for it if there is one. Must be called under the lock of the destination's send window.
+     * @param options the options of the data, see {@link RawPacket}
+     */
+    private RawPacket newDataPacket(byte[] data, InetAddress destination, byte options) {
+        DelayedAcknowledger.PendingAcknowledgement acknowledgement = acknowledger.take(destination);
+        RawPacket packet;
+
+        if (acknowledgement != null) {
+            packet = RawPacket.newData(newSequenceNumber(destination), getIp(), destination, data,
+                    acknowledgement.getCumulative(), acknowledgement.getSelective());
+        } else {
+            packet = RawPacket.newData(newSequenceNumber(destination), getIp(), destination, data);
+        }
+
+        packet.setOptions(options);
+        return packet;
+    }
+
+    /**
+     * Send data to every client in the network as a single group packet, which is retransmitted until all of them
+     * acknowledged it.
+     */
     @Override
-    @SuppressWarnings("unchecked")
-    public Iterable<InetAddress> getOtherClients() {
-        synchronized(network) {
-            return (Iterable<InetAddress>) network.clone();
+    public void broadcast(byte[] data) throws IOException {
+        if (data.length > MAX_MESSAGE_SIZE) {
+            throw new IOException("Too much data to send");
         }
+
+        groupSender.send(data);
     }
 
-    protected int newSequenceNumber(InetAddress destination) {
-        if(!lastUsedSequenceNumber.containsKey(destination)) {
-            lastUsedSequenceNumber.put(destination, 0);
+    @Override
+    public SendFuture broadcastAsync(byte[] data) {
+        if (data.length > MAX_MESSAGE_SIZE) {
+            return SendFuture.failed(new IOException("Too much data to send"));
         }
 
-        int result = lastUsedSequenceNumber.get(destination);
-        lastUsedSequenceNumber.put(destination, result + 1);
-        return result;
+        return groupSender.sendAsync(data);
+    }
+
+    @Override
+    public Packet receive() throws InterruptedException {
+        return receiveQueue.take();
+    }
+
+    @Override
+    public Packet poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return receiveQueue.poll(timeout, unit);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Packet> destination, int maxPackets) {
+        return receiveQueue.drainTo(destination, maxPackets);
+    }
+
+    /**
+     * Deliver received packets to the listener instead of queueing them. Packets that were queued before the
+     * listener is set stay available to {@link #receive()}.
+     */
+    @Override
+    public void setReceiveListener(ReceiveListener listener) {
+        dataHandler.setReceiveListener(listener);
+    }
+
+    @Override
+    public Iterable<InetAddress> getOtherClients() {
+        return peers.getNetwork();
+    }
+
+    /**
+     * The number of retransmission and announce timers that are currently scheduled.
+     * @return the number of pending timers
+     */
+    public int getPendingTimerCount() {
+        return timer.getPendingCount();
+    }
+
+    /**
+     * Set how long acknowledgements are held back, waiting for a data packet to piggyback on.
+     * @param delay the hold time in milliseconds, 0 to acknowledge every packet immediately
+     */
+    public void setAcknowledgementDelay(long delay) {
+        acknowledger.setDelay(delay);
+        groupAcknowledger.setDelay(delay);
+    }
+
+    /**
+     * Send a parity packet after every block of data packets to a peer or to the group, from which receivers rebuild
+     * a single lost packet of the block without a retransmission.
+     * @param blockSize the number of data packets per parity packet, 0 to send no parity
+     */
+    public void setParityBlockSize(int blockSize) {
+        this.parityBlockSize = blockSize;
+    }
+
+    public int getParityBlockSize() {
+        return parityBlockSize;
+    }
+
+    /**
+     * The number of data packets that were rebuilt from parity instead of being retransmitted.
+     * @return the number of rebuilt packets
+     */
+    public long getParityRecoveredCount() {
+        return parityHandler.getRecovered();
+    }
+
+    /**
+     * Compress the data sent to peers that can decompress it, whenever that makes it smaller. Only affects
+     * handshakes made afterwards, which tell peers whether to compress the data they send here.
+     * @param compression whether to compress
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Advertise the capabilities of this socket on a SYN or SYN/ACK that is about to be sent.
+     */
+    protected void setHandshakeOptions(RawPacket packet) {
+        packet.setOptions(compression ? RawPacket.COMPRESSED_OPTION : 0);
+    }
+
+    public DuplicateFilter getDuplicateFilter() {
+        return duplicateFilter;
+    }
+
+    /**
+     * The number of data packets dropped because they arrived too far ahead of the packets missing before them, or
+     * because they were fragments of a message that was too large to assemble or could not be decompressed.
+     * @return the number of dropped packets
+     */
+    public long getReorderDropCount() {
+        return dataHandler.getDropped();
+    }
+
+    /**
+     * The number of outgoing packets dropped because the sender thread could not keep up.
+     * @return the number of dropped packets
+     */
+    public long getSendDropCount() {
+        return senderThread.getDropped();
+    }
+
+    /**
+     * The number of outgoing packets dropped from one of the send queues.
+     * @param priority the queue
+     * @return the number of dropped packets
+     */
+    public long getSendDropCount(SendPriority priority) {
+        return senderThread.getDropped(priority);
+    }
+
+    /**
+     * The number of packets from the source that were not relayed because it had too much waiting already. Counts are
+     * kept for the few hundred sources that dropped packets most recently.
+     * @param source the client that sent the packets
+     * @return the number of dropped packets
+     */
+    public long getRelayDropCount(InetAddress source) {
+        return senderThread.getBulkDropped(Util.toInt(source));
+    }
+
+    /**
+     * Set how many bytes of relayed and bulk packets each client may have waiting to be sent.
+     * @param byteBudget the number of bytes per source
+     */
+    public void setRelayByteBudget(int byteBudget) {
+        senderThread.setBulkByteBudget(byteBudget);
+    }
+
+    /**
+     * The number of data packets dropped or held back because the receive queue was full.
+     * @return the number of overflows
+     */
+    public long getReceiveOverflowCount() {
+        return dataHandler.getOverflows();
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        dataHandler.setOverflowPolicy(overflowPolicy);
+    }
+
+    /**
+     * The window advertised to peers: the number of packets that still fit in the receive queue.
+     * @return the free space in the receive queue
+     */
+    public int getReceiveWindow() {
+        return Math.min(receiveQueue.remainingCapacity(), RawPacket.MAX_WINDOW);
+    }
+
+    /**
+     * The number of data packets sent to the destination that are not acknowledged yet.
+     * @param destination the peer
+     * @return the number of packets in flight
+     */
+    public int getInFlightCount(InetAddress destination) {
+        Peer peer = peers.get(destination);
+        return peer == null ? 0 : peer.getSendWindow().getInFlight();
+    }
+
+    protected int newSequenceNumber(InetAddress destination) {
+        return peers.getOrCreate(destination).newSequenceNumber();
     }
 
     public InetAddress getIp() {
         return ip;
     }
 
+    /**
+     * The IP of this socket as a 32-bit integer, to compare with {@link RawPacket#getSource()} and
+     * {@link RawPacket#getDestination()}.
+     */
+    public int getAddress() {
+        return address;
+    }
+
     public void addToNetwork(InetAddress ip) {
-        synchronized (network) {
-            network.add(ip);
-        }
+        peers.addToNetwork(ip);
 
         setChanged();
         notifyObservers();
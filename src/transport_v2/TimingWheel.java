@@ -0,0 +1,176 @@
+package transport_v2;
+
+import java.util.ArrayList;
+
+/**
+ * Hashed timing wheel that runs all timeouts of a socket on a single thread.
+ *
+ * Timeouts are hashed into a bucket by the tick at which they expire, so scheduling and cancelling are O(1). Every
+ * tick the worker thread only looks at the bucket of that tick. Timeouts further away than one rotation of the wheel
+ * stay in their bucket for the remaining number of rounds.
+ */
+public class TimingWheel {
+    private final long tickDuration;
+    private final int mask;
+    private final Timeout[] buckets;
+    private final long startTime;
+    private final Thread worker;
+
+    private long tick = 0;
+    private int pending = 0;
+
+    /**
+     * @param tickDuration the resolution of the wheel in milliseconds
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(long tickDuration, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(wheelSize, 1) - 1) << 1;
+
+        this.tickDuration = tickDuration;
+        this.buckets = new Timeout[Math.max(size, 1)];
+        this.mask = buckets.length - 1;
+        this.startTime = System.currentTimeMillis();
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TimingWheel.this.run();
+            }
+        }, "TimingWheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedule a task to be run once after the delay.
+     * @param task the task to run on the wheel's thread
+     * @param delay the delay in milliseconds
+     * @return a handle that can be used to cancel the task
+     */
+    public synchronized Timeout schedule(Runnable task, long delay) {
+        long deadline = System.currentTimeMillis() + Math.max(delay, 0);
+        long expireTick = (deadline - startTime + tickDuration - 1) / tickDuration;
+
+        if (expireTick <= tick) {
+            expireTick = tick + 1;
+        }
+
+        Timeout timeout = new Timeout(task, (int) (expireTick & mask), (expireTick - tick - 1) / buckets.length);
+        timeout.next = buckets[timeout.bucket];
+
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+
+        buckets[timeout.bucket] = timeout;
+        pending++;
+
+        return timeout;
+    }
+
+    /**
+     * The number of timeouts that are scheduled and have neither expired nor been cancelled.
+     * @return the number of pending timeouts
+     */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        pending--;
+    }
+
+    private void run() {
+        ArrayList<Runnable> expired = new ArrayList<>();
+
+        while (true) {
+            long sleep = startTime + (tick + 1) * tickDuration - System.currentTimeMillis();
+
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                tick++;
+
+                Timeout timeout = buckets[(int) (tick & mask)];
+
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+
+                    if (timeout.remainingRounds <= 0) {
+                        unlink(timeout);
+                        expired.add(timeout.task);
+                    } else {
+                        timeout.remainingRounds--;
+                    }
+
+                    timeout = next;
+                }
+            }
+
+            for (Runnable task : expired) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            expired.clear();
+        }
+    }
+
+    public class Timeout {
+        private final Runnable task;
+        private final int bucket;
+        private long remainingRounds;
+        private Timeout previous;
+        private Timeout next;
+        private boolean scheduled = true;
+
+        private Timeout(Runnable task, int bucket, long remainingRounds) {
+            this.task = task;
+            this.bucket = bucket;
+            this.remainingRounds = remainingRounds;
+        }
+
+        /**
+         * Remove the timeout from the wheel. Does nothing if it already expired or was cancelled.
+         * @return true if this call removed the timeout, so its task will not be run by the wheel
+         */
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (!scheduled) {
+                    return false;
+                }
+
+                unlink(this);
+                return true;
+            }
+        }
+
+        public boolean isPending() {
+            synchronized (TimingWheel.this) {
+                return scheduled;
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package transport_v2;
+
+import java.io.IOException;
+
+/**
+ * Sends packets to and receives packets from the multicast group.
+ */
+public interface Transport {
+
+    /**
+     * Send a packet to the group. May be called from any thread.
+     * @param packet the packet to send
+     */
+    public void send(RawPacket packet) throws IOException;
+
+    /**
+     * Wait for the next datagram and point the packet at it. The packet is a view on a buffer that is reused by the
+     * next call, which must come from the same thread.
+     * @param packet the packet to point at the datagram
+     * @return false if the datagram is not a valid packet
+     */
+    public boolean receive(RawPacket packet) throws IOException;
+
+    public void close() throws IOException;
+
+}
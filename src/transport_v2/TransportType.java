@@ -0,0 +1,16 @@
+package transport_v2;
+
+/**
+ * The implementations of {@link Transport} a socket can be built on.
+ */
+public enum TransportType {
+    /**
+     * A blocking {@link java.net.MulticastSocket}.
+     */
+    MULTICAST_SOCKET,
+
+    /**
+     * A non-blocking {@link java.nio.channels.DatagramChannel} with a selector and direct buffers.
+     */
+    DATAGRAM_CHANNEL
+}
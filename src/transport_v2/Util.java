@@ -1,6 +1,12 @@
 package transport_v2;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
 public class Util {
+    private static final int ADDRESS_CACHE_SIZE = 256;
+    private static final CachedAddress[] addressCache = new CachedAddress[ADDRESS_CACHE_SIZE];
+
     public static long differenceWithWrapAround(int x, int y) {
         long xx = x;
         long yy = y;
@@ -29,4 +35,50 @@ public class Util {
             return -incrementSteps;
         }
     }
+
+    public static int toInt(byte[] address) {
+        return (address[0] & 0xFF) << 24 | (address[1] & 0xFF) << 16 | (address[2] & 0xFF) << 8 | (address[3] & 0xFF);
+    }
+
+    public static int toInt(InetAddress address) {
+        return toInt(address.getAddress());
+    }
+
+    public static byte[] toBytes(int address) {
+        return new byte[] { (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address };
+    }
+
+    /**
+     * The InetAddress for an IPv4 address. Recently used addresses are cached by their last byte, so looking up the
+     * addresses of the peers in the network does not allocate.
+     * @param address the address as a 32-bit integer
+     * @return the address
+     */
+    public static InetAddress toInetAddress(int address) {
+        int index = address & (ADDRESS_CACHE_SIZE - 1);
+        CachedAddress cached = addressCache[index];
+
+        if (cached != null && cached.address == address) {
+            return cached.inetAddress;
+        }
+
+        try {
+            cached = new CachedAddress(address, InetAddress.getByAddress(toBytes(address)));
+        } catch (UnknownHostException e) {
+            return null;
+        }
+
+        addressCache[index] = cached;
+        return cached.inetAddress;
+    }
+
+    private static class CachedAddress {
+        private final int address;
+        private final InetAddress inetAddress;
+
+        private CachedAddress(int address, InetAddress inetAddress) {
+            this.address = address;
+            this.inetAddress = inetAddress;
+        }
+    }
 }
@@ -0,0 +1,112 @@
+package transport_v2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class AcknowledgementHandlerTest {
+    private static final InetAddress REMOTE = Util.toInetAddress(0x0A000002);
+
+    private MockSocketImpl socket;
+    private PeerTable peers;
+    private TimingWheel timer;
+    private AcknowledgementHandler handler;
+    private Peer peer;
+
+    @Before
+    public void setUp() throws IOException {
+        socket = new MockSocketImpl();
+        peers = new PeerTable(8, 10);
+        timer = new TimingWheel(10, 64);
+        // Group acknowledgements are not used here.
+        handler = new AcknowledgementHandler(socket, peers, null);
+        peer = peers.getOrCreate(REMOTE);
+    }
+
+    private AckAwaitTimerTask await(int sequenceNumber, SendFuture future) {
+        RawPacket packet = RawPacket.newData(sequenceNumber, MockSocketImpl.IP, REMOTE, new byte[] {1});
+        AckAwaitTimerTask task = new AckAwaitTimerTask(socket, packet, peer, 5, 0, future);
+        // Far enough away that only the NACK retransmits.
+        task.setTimeout(timer.schedule(task, 60 * 1000));
+        peer.addSentButNoAck(task);
+        peer.getSendWindow().add(sequenceNumber);
+        return task;
+    }
+
+    /**
+     * Reports 1 missing and 2 received.
+     */
+    private static RawPacket nack() {
+        RawPacket nack = RawPacket.newNegativeAcknowledgement(0, 0b1, false, REMOTE, MockSocketImpl.IP);
+        // Filled in by the sender thread of the peer, an open window.
+        nack.setWindow(8);
+        return nack;
+    }
+
+    @Test
+    public void negativeAcknowledgementRetransmitsMissingPacketOnce() {
+        SendFuture missing = new SendFuture();
+        SendFuture received = new SendFuture();
+        await(1, missing);
+        await(2, received);
+
+        handler.onPacketReceived(nack());
+
+        assertTrue(received.isSuccess());
+        assertFalse(missing.isDone());
+        assertEquals(1, peer.getSendWindow().getInFlight());
+        assertEquals(1, socket.getMessageQueue().size());
+        Tuple<RawPacket, Integer> retransmission = socket.getMessageQueue().poll();
+        assertEquals(1, retransmission.getA().getSequenceNumber());
+        // Sent again with one retry less.
+        assertEquals(4, (int) retransmission.getB());
+
+        // A repeated report does not retransmit the same transmission again.
+        handler.onPacketReceived(nack());
+        assertTrue(socket.getMessageQueue().isEmpty());
+    }
+
+    @Test
+    public void probingClosedWindowKeepsRetries() {
+        await(1, new SendFuture());
+        await(2, new SendFuture());
+        RawPacket nack = nack();
+        nack.setWindow(0);
+
+        handler.onPacketReceived(nack);
+
+        assertEquals(5, (int) socket.getMessageQueue().poll().getB());
+    }
+
+    @Test
+    public void negativeAcknowledgementWaitsForExpiredTimeout() {
+        SendFuture future = new SendFuture();
+        AckAwaitTimerTask task = await(1, future);
+        await(2, new SendFuture());
+        // The timing wheel already took the timeout to retransmit.
+        task.cancel();
+
+        handler.onPacketReceived(nack());
+
+        assertTrue(socket.getMessageQueue().isEmpty());
+    }
+
+    @Test
+    public void acknowledgementUpdatesPeerWindow() {
+        SendFuture future = new SendFuture();
+        await(1, future);
+        RawPacket acknowledgement = RawPacket.newSelectiveAcknowledgement(1, 0, REMOTE, MockSocketImpl.IP);
+        acknowledgement.setWindow(0);
+
+        handler.onPacketReceived(acknowledgement);
+
+        assertTrue(future.isSuccess());
+        assertEquals(0, peer.getSendWindow().getPeerWindow());
+        assertEquals(0, peer.getSentButNoAckCount());
+        assertTrue(socket.getMessageQueue().isEmpty());
+    }
+}
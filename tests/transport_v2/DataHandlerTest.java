@@ -0,0 +1,222 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.Assert.*;
+
+public class DataHandlerTest {
+    private static final InetAddress LOCAL = Util.toInetAddress(0x0A000001);
+    private static final InetAddress REMOTE = Util.toInetAddress(0x0A000002);
+
+    /**
+     * Records the acknowledgements instead of sending them.
+     */
+    private static class RecordingAcknowledger extends DelayedAcknowledger {
+        private final List<Integer> acknowledged = new ArrayList<>();
+        private final List<Integer> missing = new ArrayList<>();
+
+        private RecordingAcknowledger() {
+            super(null, null, 0);
+        }
+
+        @Override
+        public void acknowledge(InetAddress source, int cumulative, int selective) {
+            acknowledged.add(cumulative);
+        }
+
+        @Override
+        public void acknowledgeMissing(InetAddress source, int cumulative, int selective) {
+            missing.add(cumulative);
+        }
+
+        private int last() {
+            return acknowledged.get(acknowledged.size() - 1);
+        }
+    }
+
+    private final BlockingQueue<Packet> queue = new ArrayBlockingQueue<>(1);
+    private final RecordingAcknowledger acknowledger = new RecordingAcknowledger();
+    private final RecordingAcknowledger groupAcknowledger = new RecordingAcknowledger();
+
+    private DataHandler handler(OverflowPolicy overflowPolicy) {
+        DataHandler handler = new DataHandler(null, queue, new PeerTable(8, 10), acknowledger, groupAcknowledger, 16,
+                overflowPolicy);
+        handler.onPacketReceived(RawPacket.newSynchronization(0, REMOTE, LOCAL));
+        return handler;
+    }
+
+    private static RawPacket data(int sequenceNumber) {
+        return RawPacket.newData(sequenceNumber, REMOTE, LOCAL, new byte[] {(byte) sequenceNumber});
+    }
+
+    private static byte received(Packet packet) {
+        return packet.getData()[0];
+    }
+
+    @Test
+    public void rejectLeavesPacketUnacknowledgedUntilThereIsRoom() {
+        DataHandler handler = handler(OverflowPolicy.REJECT);
+
+        handler.onPacketReceived(data(1));
+        handler.onPacketReceived(data(2));
+
+        assertEquals(1, queue.size());
+        assertEquals(1, acknowledger.last());
+        assertEquals(1, handler.getOverflows());
+
+        // The probe from the source is delivered once the application made room.
+        assertEquals(1, received(queue.poll()));
+        handler.onPacketReceived(data(2));
+
+        assertEquals(2, received(queue.poll()));
+        assertEquals(2, acknowledger.last());
+    }
+
+    @Test
+    public void dropOldestMakesRoom() {
+        DataHandler handler = handler(OverflowPolicy.DROP_OLDEST);
+
+        handler.onPacketReceived(data(1));
+        handler.onPacketReceived(data(2));
+
+        assertEquals(2, acknowledger.last());
+        assertEquals(1, handler.getOverflows());
+        assertEquals(2, received(queue.poll()));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void blockWaitsForTheApplication() throws InterruptedException {
+        DataHandler handler = handler(OverflowPolicy.BLOCK);
+        handler.onPacketReceived(data(1));
+
+        Thread application = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    queue.take();
+                } catch (InterruptedException e) {
+                    // The test fails on the missing packet.
+                }
+            }
+        });
+        application.start();
+
+        handler.onPacketReceived(data(2));
+        application.join();
+
+        assertEquals(2, acknowledger.last());
+        assertEquals(2, received(queue.poll()));
+    }
+
+    @Test
+    public void blockGivesUpLikeReject() {
+        DataHandler handler = handler(OverflowPolicy.BLOCK);
+        handler.onPacketReceived(data(1));
+
+        handler.onPacketReceived(data(2));
+
+        assertEquals(1, acknowledger.last());
+        assertEquals(1, received(queue.poll()));
+    }
+
+    @Test
+    public void listenerTakesPacketsInsteadOfQueue() {
+        DataHandler handler = handler(OverflowPolicy.REJECT);
+        final List<Packet> packets = new ArrayList<>();
+        handler.setReceiveListener(new ReceiveListener() {
+            @Override
+            public void onReceive(Packet packet) {
+                packets.add(packet);
+            }
+        });
+
+        for (int i = 1; i <= 3; i++) {
+            handler.onPacketReceived(data(i));
+        }
+
+        assertEquals(3, packets.size());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, handler.getOverflows());
+    }
+
+    @Test
+    public void gapIsReportedOnce() {
+        DataHandler handler = handler(OverflowPolicy.REJECT);
+
+        handler.onPacketReceived(data(3));
+        handler.onPacketReceived(data(2));
+
+        assertEquals(1, acknowledger.missing.size());
+        assertEquals(0, (int) acknowledger.missing.get(0));
+        assertEquals(0, acknowledger.last());
+    }
+
+    private static RawPacket groupData(int sequenceNumber, int base) {
+        return RawPacket.newGroupData(sequenceNumber, base, REMOTE, RawPacket.BROADCAST, new byte[] {(byte) sequenceNumber});
+    }
+
+    private List<Byte> receiveGroup(DataHandler handler, RawPacket... packets) {
+        final List<Byte> received = new ArrayList<>();
+        handler.setReceiveListener(new ReceiveListener() {
+            @Override
+            public void onReceive(Packet packet) {
+                received.add(received(packet));
+            }
+        });
+
+        for (RawPacket packet : packets) {
+            handler.onPacketReceived(packet);
+        }
+
+        return received;
+    }
+
+    @Test
+    public void groupStreamStartsAtBaseWithoutHandshake() {
+        DataHandler handler = new DataHandler(null, queue, new PeerTable(8, 10), acknowledger, groupAcknowledger, 16,
+                OverflowPolicy.REJECT);
+
+        List<Byte> received = receiveGroup(handler, groupData(11, 10), groupData(10, 10));
+
+        assertEquals(2, received.size());
+        assertEquals(10, (int) received.get(0));
+        assertEquals(11, groupAcknowledger.last());
+        assertEquals(1, groupAcknowledger.missing.size());
+    }
+
+    @Test
+    public void skippedGroupPacketsKeepTheOnesBufferedAfterThem() {
+        DataHandler handler = handler(OverflowPolicy.REJECT);
+
+        // 11 is lost, the source then gives up on it and moves its base to 12.
+        List<Byte> received = receiveGroup(handler, groupData(10, 10), groupData(12, 11), groupData(13, 11),
+                groupData(14, 12));
+
+        assertEquals(4, received.size());
+        assertEquals(12, (int) received.get(1));
+        assertEquals(14, (int) received.get(3));
+        assertEquals(14, groupAcknowledger.last());
+        assertEquals(0, handler.getDropped());
+    }
+
+    @Test
+    public void groupStreamFarAwayStartsOver() {
+        DataHandler handler = handler(OverflowPolicy.REJECT);
+
+        // The source restarted with other sequence numbers, far behind and then far ahead of this client.
+        List<Byte> received = receiveGroup(handler, groupData(100, 100), groupData(12, 12), groupData(60, 60));
+
+        assertEquals(3, received.size());
+        assertEquals(12, (int) received.get(1));
+        assertEquals(60, (int) received.get(2));
+        assertEquals(60, groupAcknowledger.last());
+    }
+}
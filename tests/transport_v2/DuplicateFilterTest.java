@@ -0,0 +1,61 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DuplicateFilterTest {
+    private static final long EXPIRY = 60 * 1000;
+
+    @Test
+    public void detectsSecondCopy() {
+        DuplicateFilter filter = new DuplicateFilter(1024, EXPIRY);
+
+        assertFalse(filter.isDuplicate(1, 42));
+        assertTrue(filter.isDuplicate(1, 42));
+        assertEquals(1, filter.getHits());
+    }
+
+    @Test
+    public void keyIsSourceAndNonce() {
+        DuplicateFilter filter = new DuplicateFilter(1024, EXPIRY);
+
+        assertFalse(filter.isDuplicate(1, 42));
+        assertFalse(filter.isDuplicate(2, 42));
+        assertFalse(filter.isDuplicate(1, 43));
+        assertFalse(filter.isDuplicate(1, -42));
+        assertTrue(filter.isDuplicate(2, 42));
+    }
+
+    @Test
+    public void capacityIsPowerOfTwoWithinBudget() {
+        // 1000 / 16 = 62 entries, rounded down to 32.
+        assertEquals(32, new DuplicateFilter(1000, EXPIRY).getCapacity());
+        assertEquals(8, new DuplicateFilter(0, EXPIRY).getCapacity());
+    }
+
+    @Test
+    public void forgetsExpiredPackets() throws InterruptedException {
+        DuplicateFilter filter = new DuplicateFilter(1024, 20);
+
+        assertFalse(filter.isDuplicate(1, 42));
+        Thread.sleep(60);
+        assertFalse(filter.isDuplicate(1, 42));
+        assertTrue(filter.isDuplicate(1, 42));
+    }
+
+    @Test
+    public void evictsInsteadOfGrowing() {
+        DuplicateFilter filter = new DuplicateFilter(0, EXPIRY);
+        int capacity = filter.getCapacity();
+
+        for (int nonce = 0; nonce < capacity * 4; nonce++) {
+            assertFalse(filter.isDuplicate(1, nonce));
+        }
+
+        assertEquals(capacity, filter.getCapacity());
+        assertTrue(filter.getEvictions() >= capacity * 3);
+        // The most recent packet is never the one evicted.
+        assertTrue(filter.isDuplicate(1, capacity * 4 - 1));
+    }
+}
@@ -0,0 +1,133 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FairQueueTest {
+    private static final int QUANTUM = 1000;
+
+    private static RawPacket packet(int source, int dataLength) {
+        return RawPacket.newData(0, Util.toInetAddress(source), Util.toInetAddress(0x0A0000FF), new byte[dataLength]);
+    }
+
+    @Test
+    public void servesSourcesInRoundRobin() {
+        FairQueue queue = new FairQueue(QUANTUM, 100 * 1000);
+
+        for (int i = 0; i < 3; i++) {
+            queue.add(packet(1, 500));
+        }
+
+        queue.add(packet(2, 500));
+        assertEquals(4, queue.size());
+
+        // Every turn credits one quantum, which covers a single packet with its header.
+        assertEquals(1, queue.poll().getSource());
+        assertEquals(2, queue.poll().getSource());
+        assertEquals(1, queue.poll().getSource());
+        assertEquals(1, queue.poll().getSource());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void sharesBytesEquallyWhateverThePacketSize() {
+        FairQueue queue = new FairQueue(QUANTUM, 1000 * 1000);
+
+        for (int i = 0; i < 400; i++) {
+            queue.add(packet(1, 100));
+        }
+
+        for (int i = 0; i < 40; i++) {
+            queue.add(packet(2, 1000));
+        }
+
+        int[] bytes = new int[3];
+
+        for (int i = 0; i < 200; i++) {
+            RawPacket packet = queue.poll();
+            bytes[packet.getSource()] += packet.getLength();
+        }
+
+        // Both sources are still backlogged, so they have had about the same number of bytes.
+        assertTrue(Math.abs(bytes[1] - bytes[2]) <= 2 * (QUANTUM + RawPacket.MIN_SIZE));
+    }
+
+    @Test
+    public void largePacketWaitsForCreditToBuildUp() {
+        FairQueue queue = new FairQueue(QUANTUM, 100 * 1000);
+        queue.add(packet(1, 2500));
+        queue.add(packet(2, 100));
+
+        // Source 1 lacks the credit for its packet in its first turns, source 2 does not.
+        assertEquals(2, queue.poll().getSource());
+        assertEquals(1, queue.poll().getSource());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void dropsPacketsBeyondByteBudget() {
+        RawPacket packet = packet(1, 100);
+        FairQueue queue = new FairQueue(QUANTUM, 2 * packet.getLength());
+
+        assertTrue(queue.add(packet(1, 100)));
+        assertTrue(queue.add(packet(1, 100)));
+        assertFalse(queue.add(packet(1, 100)));
+        assertTrue(queue.add(packet(2, 100)));
+
+        assertEquals(3, queue.size());
+        assertEquals(1, queue.getDropped());
+        assertEquals(1, queue.getDropped(1));
+        assertEquals(0, queue.getDropped(2));
+
+        // Sending frees up budget again.
+        queue.poll();
+        assertTrue(queue.add(packet(1, 100)));
+    }
+
+    @Test
+    public void dropCountsOutliveDrainedQueues() {
+        RawPacket packet = packet(1, 100);
+        FairQueue queue = new FairQueue(QUANTUM, packet.getLength());
+
+        queue.add(packet(1, 100));
+        queue.add(packet(1, 100));
+        assertEquals(1, queue.getDropped(1));
+
+        queue.poll();
+        assertTrue(queue.isEmpty());
+        assertEquals(1, queue.getDropped(1));
+
+        // A packet that can never fit is counted even though its source never had a queue.
+        assertFalse(queue.add(packet(3, 200)));
+        assertEquals(1, queue.getDropped(3));
+        assertEquals(2, queue.getDropped());
+    }
+
+    @Test
+    public void dropCountsAreBoundedToRecentSources() {
+        FairQueue queue = new FairQueue(QUANTUM, 0);
+
+        for (int source = 1; source <= 1000; source++) {
+            assertFalse(queue.add(packet(source, 1)));
+        }
+
+        assertEquals(1000, queue.getDropped());
+        assertEquals(0, queue.getDropped(1));
+        assertEquals(1, queue.getDropped(1000));
+    }
+
+    @Test
+    public void unbudgetedPacketsAreQueuedButUseUpTheBudget() {
+        RawPacket packet = packet(1, 100);
+        FairQueue queue = new FairQueue(QUANTUM, packet.getLength());
+
+        assertTrue(queue.add(packet(1, 100), false));
+        assertTrue(queue.add(packet(1, 100), false));
+        assertFalse(queue.add(packet(1, 100)));
+
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getDropped(1));
+    }
+}
@@ -0,0 +1,84 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FragmentAssemblerTest {
+    private static final InetAddress SOURCE = Util.toInetAddress(0x0A000001);
+    private static final InetAddress DESTINATION = Util.toInetAddress(0x0A000002);
+
+    private static RawPacket fragment(int sequenceNumber, byte[] data) {
+        return RawPacket.newData(sequenceNumber, SOURCE, DESTINATION, data);
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+
+        return data;
+    }
+
+    @Test
+    public void splitAndAssembleRoundTrip() {
+        byte[] data = bytes(1000);
+        List<byte[]> fragments = FragmentSizer.split(data, 300);
+        assertEquals(4, fragments.size());
+        assertEquals(100, fragments.get(3).length);
+
+        FragmentAssembler assembler = new FragmentAssembler(4096);
+
+        for (int i = 0; i < fragments.size() - 1; i++) {
+            assertTrue(assembler.add(fragment(i, fragments.get(i))));
+        }
+
+        RawPacket last = fragment(3, fragments.get(3));
+        assertArrayEquals(data, assembler.assemble(last));
+        // Assembling again gives the same data, until the fragments are cleared.
+        assertArrayEquals(data, assembler.assemble(last));
+
+        assembler.clear();
+        assertArrayEquals(fragments.get(3), assembler.assemble(last));
+    }
+
+    @Test
+    public void unfragmentedMessageIsItsOwnData() {
+        byte[] data = bytes(10);
+        assertEquals(1, FragmentSizer.split(data, 300).size());
+        assertSame(data, FragmentSizer.split(data, 300).get(0));
+
+        assertArrayEquals(data, new FragmentAssembler(4096).assemble(fragment(0, data)));
+    }
+
+    @Test
+    public void dropsOversizedMessageUpToItsLastFragment() {
+        FragmentAssembler assembler = new FragmentAssembler(500);
+
+        assertTrue(assembler.add(fragment(0, bytes(300))));
+        assertFalse(assembler.add(fragment(1, bytes(300))));
+        // Later fragments of the same message are dropped as well.
+        assertFalse(assembler.add(fragment(2, bytes(10))));
+        assertNull(assembler.assemble(fragment(3, bytes(10))));
+
+        // The next message starts fresh.
+        assembler.clear();
+        byte[] data = bytes(400);
+        assertTrue(assembler.add(fragment(4, Arrays.copyOf(data, 200))));
+        assertArrayEquals(data, assembler.assemble(fragment(5, Arrays.copyOfRange(data, 200, 400))));
+    }
+
+    @Test
+    public void lastFragmentCanMakeMessageTooLarge() {
+        FragmentAssembler assembler = new FragmentAssembler(500);
+
+        assertTrue(assembler.add(fragment(0, bytes(300))));
+        assertNull(assembler.assemble(fragment(1, bytes(300))));
+    }
+}
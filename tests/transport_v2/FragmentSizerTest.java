@@ -0,0 +1,94 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class FragmentSizerTest {
+    @Test
+    public void halvesOnLossDownToMinimum() {
+        FragmentSizer sizer = new FragmentSizer();
+        assertEquals(FragmentSizer.MAX_FRAGMENT_SIZE, sizer.getFragmentSize());
+
+        int expected = FragmentSizer.MAX_FRAGMENT_SIZE;
+
+        for (int round = 0; round < 10; round++) {
+            lossyRound(sizer);
+            expected = Math.max(expected / 2, FragmentSizer.MIN_FRAGMENT_SIZE);
+            assertEquals(expected, sizer.getFragmentSize());
+        }
+
+        assertEquals(FragmentSizer.MIN_FRAGMENT_SIZE, sizer.getFragmentSize());
+    }
+
+    @Test
+    public void growsStepwiseWhenClean() {
+        FragmentSizer sizer = new FragmentSizer();
+        lossyRound(sizer);
+        lossyRound(sizer);
+        int size = sizer.getFragmentSize();
+
+        cleanRound(sizer);
+        assertEquals(size + 128, sizer.getFragmentSize());
+
+        for (int round = 0; round < 20; round++) {
+            cleanRound(sizer);
+        }
+
+        assertEquals(FragmentSizer.MAX_FRAGMENT_SIZE, sizer.getFragmentSize());
+    }
+
+    @Test
+    public void keepsSizeOnModerateLoss() {
+        FragmentSizer sizer = new FragmentSizer();
+        lossyRound(sizer);
+        int size = sizer.getFragmentSize();
+
+        // One retransmission in 16 is between the low and the high loss rate.
+        sizer.onTransmission(true);
+
+        for (int i = 1; i < 16; i++) {
+            sizer.onTransmission(false);
+        }
+
+        assertEquals(size, sizer.getFragmentSize());
+    }
+
+    @Test
+    public void countsOnlyPacketsAboutTheSizeOfAFragment() {
+        InetAddress source = Util.toInetAddress(0x0A000001);
+        InetAddress destination = Util.toInetAddress(0x0A000002);
+        FragmentSizer sizer = new FragmentSizer();
+        RawPacket fragment = RawPacket.newData(1, source, destination, new byte[10]);
+        fragment.setOptions(RawPacket.MORE_FRAGMENTS_OPTION);
+
+        // Lost handshakes and small messages do not shrink the fragments.
+        for (int i = 0; i < 16; i++) {
+            sizer.onTransmission(RawPacket.newSynchronization(1, source, destination), true);
+            sizer.onTransmission(RawPacket.newData(1, source, destination, new byte[10]), true);
+        }
+
+        assertEquals(FragmentSizer.MAX_FRAGMENT_SIZE, sizer.getFragmentSize());
+
+        for (int i = 0; i < 8; i++) {
+            sizer.onTransmission(fragment, true);
+            sizer.onTransmission(RawPacket.newData(1, source, destination, new byte[FragmentSizer.MAX_FRAGMENT_SIZE / 2]), true);
+        }
+
+        assertEquals(FragmentSizer.MAX_FRAGMENT_SIZE / 2, sizer.getFragmentSize());
+    }
+
+    private static void lossyRound(FragmentSizer sizer) {
+        for (int i = 0; i < 16; i++) {
+            sizer.onTransmission(i % 4 == 0);
+        }
+    }
+
+    private static void cleanRound(FragmentSizer sizer) {
+        for (int i = 0; i < 16; i++) {
+            sizer.onTransmission(false);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package transport_v2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GroupSenderTest {
+    private static final InetAddress B = Util.toInetAddress(0x0A000002);
+    private static final InetAddress C = Util.toInetAddress(0x0A000003);
+
+    private MockSocketImpl socket;
+    private PeerTable peers;
+    private TimingWheel timer;
+
+    @Before
+    public void setUp() throws IOException {
+        socket = new MockSocketImpl();
+        peers = new PeerTable(8, 10);
+        timer = new TimingWheel(10, 64);
+
+        for (InetAddress ip : new InetAddress[] {B, C}) {
+            peers.addToNetwork(ip);
+            // Brings the retransmission timeout down to its minimum.
+            peers.get(ip).getRttEstimator().addSample(1);
+        }
+    }
+
+    private GroupSender sender(int maxRetransmitCount) {
+        return new GroupSender(socket, timer, peers, 8, 0, maxRetransmitCount);
+    }
+
+    private static RawPacket acknowledgement(int sequenceNumber, InetAddress source) {
+        return RawPacket.newGroupAcknowledgement(sequenceNumber, 0, source, MockSocketImpl.IP);
+    }
+
+    private List<RawPacket> sentTo(InetAddress destination) {
+        List<RawPacket> packets = new ArrayList<>();
+
+        for (RawPacket packet : socket.getSent()) {
+            if (packet.getDestination() == Util.toInt(destination)) {
+                packets.add(packet);
+            }
+        }
+
+        return packets;
+    }
+
+    @Test
+    public void completesWhenEveryReceiverAcknowledged() {
+        GroupSender sender = sender(5);
+        SendFuture future = sender.sendAsync(new byte[] {1});
+        RawPacket packet = socket.getSent().poll();
+
+        assertTrue(packet.isGroup());
+        assertEquals(RawPacket.BROADCAST, packet.getDestination());
+        // Nothing is outstanding yet, so the stream starts at this packet.
+        assertEquals(packet.getSequenceNumber(), packet.getAcknowledgmentNumber());
+
+        sender.onAcknowledgement(acknowledgement(packet.getSequenceNumber(), B));
+        assertFalse(future.isDone());
+        assertEquals(1, sender.getInFlightCount());
+
+        sender.onAcknowledgement(acknowledgement(packet.getSequenceNumber(), C));
+        assertTrue(future.isSuccess());
+        assertEquals(0, sender.getInFlightCount());
+    }
+
+    @Test
+    public void negativeAcknowledgementRetransmitsToTheReceiverAtOnce() throws InterruptedException {
+        GroupSender sender = sender(5);
+        sender.sendAsync(new byte[] {1});
+        sender.sendAsync(new byte[] {2});
+        int first = socket.getSent().poll().getSequenceNumber();
+        int second = socket.getSent().poll().getSequenceNumber();
+        sender.onAcknowledgement(acknowledgement(second, C));
+        // Older than the smoothed round trip time of B.
+        Thread.sleep(5);
+
+        sender.onAcknowledgement(RawPacket.newNegativeAcknowledgement(first - 1, 0b1, true, B, MockSocketImpl.IP));
+
+        List<RawPacket> retransmissions = sentTo(B);
+        assertEquals(1, retransmissions.size());
+        assertEquals(first, retransmissions.get(0).getSequenceNumber());
+        assertEquals(first, retransmissions.get(0).getAcknowledgmentNumber());
+        // The second packet was acknowledged by the same NACK.
+        assertEquals(1, sender.getInFlightCount());
+    }
+
+    @Test
+    public void silentReceiverIsRemovedWhenRetriesRunOut() throws Exception {
+        GroupSender sender = sender(2);
+        SendFuture future = sender.sendAsync(new byte[] {1});
+        int sequenceNumber = socket.getSent().poll().getSequenceNumber();
+        sender.onAcknowledgement(acknowledgement(sequenceNumber, B));
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        assertEquals(1, sentTo(C).size());
+        assertTrue(sentTo(B).isEmpty());
+        assertArrayEquals(new Object[] {C}, socket.getRemoved().toArray());
+        assertEquals(0, sender.getInFlightCount());
+    }
+
+    @Test
+    public void closedWindowIsProbedWithoutUsingUpRetries() throws InterruptedException {
+        GroupSender sender = sender(2);
+        SendFuture future = sender.sendAsync(new byte[] {1});
+        int sequenceNumber = socket.getSent().poll().getSequenceNumber();
+        sender.onAcknowledgement(acknowledgement(sequenceNumber, B));
+        peers.get(C).getSendWindow().setPeerWindow(0);
+
+        Thread.sleep(1000);
+
+        assertTrue(socket.getRemoved().isEmpty());
+        assertTrue(sentTo(C).size() >= 2);
+        assertFalse(future.isDone());
+
+        sender.onAcknowledgement(acknowledgement(sequenceNumber, C));
+        assertTrue(future.isSuccess());
+    }
+
+    @Test
+    public void removedReceiverIsNotWaitedFor() {
+        GroupSender sender = sender(5);
+        SendFuture future = sender.sendAsync(new byte[] {1});
+        int sequenceNumber = socket.getSent().poll().getSequenceNumber();
+        sender.onAcknowledgement(acknowledgement(sequenceNumber, B));
+
+        sender.removeReceiver(Util.toInt(C));
+
+        assertTrue(future.isSuccess());
+        assertEquals(0, sender.getInFlightCount());
+    }
+
+    @Test
+    public void largeMessageIsSentInFragments() {
+        GroupSender sender = sender(5);
+        SendFuture future = sender.sendAsync(new byte[FragmentSizer.MAX_FRAGMENT_SIZE + 1]);
+        RawPacket first = socket.getSent().poll();
+        RawPacket last = socket.getSent().poll();
+
+        assertTrue(first.hasMoreFragments());
+        assertFalse(last.hasMoreFragments());
+        assertEquals(first.getSequenceNumber() + 1, last.getSequenceNumber());
+        // The first fragment is still outstanding, so the stream starts there for both.
+        assertEquals(first.getSequenceNumber(), last.getAcknowledgmentNumber());
+
+        for (InetAddress receiver : new InetAddress[] {B, C}) {
+            sender.onAcknowledgement(acknowledgement(last.getSequenceNumber(), receiver));
+        }
+
+        assertTrue(future.isSuccess());
+    }
+}
@@ -0,0 +1,103 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntHashMapTest {
+    @Test
+    public void putGetAndReplace() {
+        IntHashMap<String> map = new IntHashMap<>();
+
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(-1, "b"));
+        assertEquals("a", map.put(1, "c"));
+
+        assertEquals("c", map.get(1));
+        assertEquals("b", map.get(-1));
+        assertNull(map.get(2));
+        assertTrue(map.containsKey(-1));
+        assertFalse(map.containsKey(0));
+        assertEquals(2, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullValues() {
+        new IntHashMap<String>().put(1, null);
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        IntHashMap<Integer> map = new IntHashMap<>();
+
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 31, i);
+        }
+
+        assertEquals(1000, map.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), map.get(i * 31));
+        }
+    }
+
+    @Test
+    public void removeKeepsProbeSequencesIntact() {
+        IntHashMap<Integer> map = new IntHashMap<>();
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(1);
+
+        // Small keys in a small table collide often, which exercises the backward shift on removal.
+        for (int i = 0; i < 10000; i++) {
+            int key = random.nextInt(64);
+
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (int key = 0; key < 64; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void keysAndValues() {
+        IntHashMap<String> map = new IntHashMap<>();
+        map.put(3, "c");
+        map.put(1, "a");
+        map.put(2, "b");
+        map.remove(2);
+
+        int[] keys = map.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(new int[] {1, 3}, keys);
+
+        List<String> values = new ArrayList<>();
+        map.valuesInto(values);
+        assertEquals(2, values.size());
+        assertTrue(values.containsAll(Arrays.asList("a", "c")));
+    }
+
+    @Test
+    public void clear() {
+        IntHashMap<String> map = new IntHashMap<>();
+        map.put(1, "a");
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertNull(map.put(1, "b"));
+        assertEquals(1, map.size());
+    }
+}
@@ -5,19 +5,25 @@ import java.net.InetAddress;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class MockSocketImpl extends SocketImpl {
     public static final InetAddress IP = InetAddress.getLoopbackAddress();
 
     private Queue<Tuple<RawPacket, Integer>> messageQueue = new LinkedList<>();
     private HashSet<InetAddress> network = new HashSet<>();
+    // Filled by the timing wheel as well as the test thread.
+    private Queue<RawPacket> sent = new ConcurrentLinkedQueue<>();
+    private Queue<InetAddress> removed = new ConcurrentLinkedQueue<>();
     private int seq = 0;
 
     public MockSocketImpl() throws IOException {
         super(1888);
     }
 
-    protected void sendAndRetry(RawPacket packet, int retries) throws IOException {
+    // All reliable sends end up here, including the asynchronous ones from sendPending.
+    @Override
+    protected void sendAndRetry(RawPacket packet, int retries, SendFuture future) throws IOException {
         messageQueue.add(new Tuple<RawPacket, Integer>(packet, retries));
     }
 
@@ -25,11 +31,35 @@ public class MockSocketImpl extends SocketImpl {
         return messageQueue;
     }
 
+    // Unreliable sends, such as group packets and acknowledgements, end up here.
+    @Override
+    protected void send(RawPacket packet) throws IOException {
+        sent.add(packet);
+    }
+
+    public Queue<RawPacket> getSent() {
+        return sent;
+    }
+
+    @Override
+    protected void removeFromNetwork(InetAddress ip) {
+        removed.add(ip);
+    }
+
+    public Queue<InetAddress> getRemoved() {
+        return removed;
+    }
+
     @Override
     public InetAddress getIp() {
         return IP;
     }
 
+    @Override
+    public int getAddress() {
+        return Util.toInt(IP);
+    }
+
     @Override
     public void addToNetwork(InetAddress other) {
         network.add(other);
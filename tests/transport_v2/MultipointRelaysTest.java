@@ -0,0 +1,138 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class MultipointRelaysTest {
+    private static final int LOCAL = 0x0A000001;
+
+    private static InetAddress ip(int address) {
+        return Util.toInetAddress(address);
+    }
+
+    private static Peer neighbour(PeerTable peers, int address, int... neighbours) {
+        Peer peer = peers.getOrCreate(ip(address));
+        peers.setDistance(peer, 1);
+        peer.setNeighbours(neighbours);
+        return peer;
+    }
+
+    private static RawPacket announce(int source, int[] neighbours, boolean[] relays) {
+        ByteBuffer data = ByteBuffer.allocate(neighbours.length * 5);
+
+        for (int i = 0; i < neighbours.length; i++) {
+            data.putInt(neighbours[i]);
+            data.put((byte) (relays[i] ? 1 : 0));
+        }
+
+        return RawPacket.newAnnounce(ip(source), data.array());
+    }
+
+    @Test
+    public void choosesFewestNeighboursThatReachEveryoneTwoHopsAway() {
+        PeerTable peers = new PeerTable(8, 10);
+        // B is the only way to 20 and D the only way to 22, B also covers 21 which C could reach.
+        Peer b = neighbour(peers, 2, LOCAL, 20, 21);
+        Peer c = neighbour(peers, 3, LOCAL, 21, 2);
+        Peer d = neighbour(peers, 4, 22);
+        MultipointRelays relays = new MultipointRelays(peers, LOCAL);
+
+        relays.select();
+
+        assertTrue(b.isRelay());
+        assertFalse(c.isRelay());
+        assertTrue(d.isRelay());
+    }
+
+    @Test
+    public void greedilyCoversRemainingClients() {
+        PeerTable peers = new PeerTable(8, 10);
+        Peer wide = neighbour(peers, 2, 20, 21, 22);
+        Peer narrow = neighbour(peers, 3, 20, 21);
+        Peer other = neighbour(peers, 4, 22);
+        MultipointRelays relays = new MultipointRelays(peers, LOCAL);
+
+        relays.select();
+
+        assertTrue(wide.isRelay());
+        assertFalse(narrow.isRelay());
+        assertFalse(other.isRelay());
+    }
+
+    @Test
+    public void directAnnounceTellsWhetherThisClientWasChosen() {
+        PeerTable peers = new PeerTable(8, 10);
+        Peer peer = peers.getOrCreate(ip(2));
+        peers.setDistance(peer, 1);
+        MultipointRelays relays = new MultipointRelays(peers, LOCAL);
+
+        relays.onAnnounce(peer, announce(2, new int[] {LOCAL, 20}, new boolean[] {true, false}));
+
+        assertArrayEquals(new int[] {LOCAL, 20}, peer.getNeighbours());
+        assertTrue(peer.isRelaySelector());
+        // This client is the only way to 20.
+        assertTrue(peer.isRelay());
+
+        relays.onAnnounce(peer, announce(2, new int[] {LOCAL, 20}, new boolean[] {false, false}));
+        assertFalse(peer.isRelaySelector());
+    }
+
+    @Test
+    public void relayedAnnounceForgetsNeighbour() {
+        PeerTable peers = new PeerTable(8, 10);
+        Peer peer = peers.getOrCreate(ip(2));
+        MultipointRelays relays = new MultipointRelays(peers, LOCAL);
+        relays.onAnnounce(peer, announce(2, new int[] {LOCAL}, new boolean[] {true}));
+
+        RawPacket relayed = announce(2, new int[0], new boolean[0]);
+        relayed.setPreviousHop(3);
+        relays.onAnnounce(peer, relayed);
+
+        assertNull(peer.getNeighbours());
+        assertFalse(peer.isRelaySelector());
+    }
+
+    @Test
+    public void relaysOnlyForNeighboursThatChoseThisClient() {
+        PeerTable peers = new PeerTable(8, 10);
+        Peer chose = neighbour(peers, 2, LOCAL);
+        chose.setRelaySelector(true);
+        neighbour(peers, 3, LOCAL);
+        MultipointRelays relays = new MultipointRelays(peers, LOCAL);
+        RawPacket packet = RawPacket.newData(1, ip(20), ip(21), new byte[] {1});
+
+        packet.setPreviousHop(2);
+        assertTrue(relays.shouldRelay(packet));
+        packet.setPreviousHop(3);
+        assertFalse(relays.shouldRelay(packet));
+
+        // Until the lists of a neighbour are known its floods are relayed anyway.
+        packet.setPreviousHop(4);
+        assertTrue(relays.shouldRelay(packet));
+        peers.getOrCreate(ip(4));
+        assertTrue(relays.shouldRelay(packet));
+    }
+
+    @Test
+    public void encodesNeighboursWithTheirRelayFlag() {
+        PeerTable peers = new PeerTable(8, 10);
+        neighbour(peers, 2, 20).setRelay(true);
+        neighbour(peers, 3);
+        peers.setDistance(peers.getOrCreate(ip(30)), 2);
+        ByteBuffer data = ByteBuffer.wrap(new MultipointRelays(peers, LOCAL).encodeNeighbours());
+
+        // Only the direct neighbours are listed.
+        assertEquals(10, data.remaining());
+
+        for (int i = 0; i < 2; i++) {
+            int address = data.getInt();
+            byte relay = data.get();
+            assertEquals(address == 2 ? 1 : 0, relay);
+            assertTrue(address == 2 || address == 3);
+        }
+    }
+}
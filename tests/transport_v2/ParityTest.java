@@ -0,0 +1,165 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ParityTest {
+    private static final InetAddress SOURCE = Util.toInetAddress(0x0A000001);
+    private static final InetAddress DESTINATION = Util.toInetAddress(0x0A000002);
+
+    private static class Collector implements PacketListener {
+        private final List<RawPacket> packets = new ArrayList<>();
+
+        @Override
+        public void onPacketReceived(RawPacket packet) {
+            packets.add(packet);
+        }
+    }
+
+    private static RawPacket data(int sequenceNumber, String data) {
+        return RawPacket.newData(sequenceNumber, SOURCE, DESTINATION, data.getBytes());
+    }
+
+    @Test
+    public void encoderEmitsParityPerBlock() {
+        ParityEncoder encoder = new ParityEncoder();
+
+        assertNull(encoder.add(data(10, "a"), 3));
+        assertNull(encoder.add(data(11, "bb"), 3));
+        RawPacket parity = encoder.add(data(12, "ccc"), 3);
+
+        assertNotNull(parity);
+        assertTrue(parity.isParity());
+        assertEquals(10, parity.getSequenceNumber());
+        assertEquals(3, parity.getAcknowledgmentNumber());
+        assertEquals(ParityEncoder.PARITY_HEADER_SIZE + 3, parity.getDataLength());
+    }
+
+    @Test
+    public void encoderRestartsBlockOnGap() {
+        ParityEncoder encoder = new ParityEncoder();
+
+        assertNull(encoder.add(data(10, "a"), 2));
+        assertNull(encoder.add(data(12, "b"), 2));
+        RawPacket parity = encoder.add(data(13, "c"), 2);
+
+        assertEquals(12, parity.getSequenceNumber());
+        assertNull(encoder.add(data(14, "d"), 1));
+    }
+
+    @Test
+    public void rebuildsSingleLostPacket() {
+        ParityEncoder encoder = new ParityEncoder();
+        RawPacket first = data(10, "first");
+        RawPacket lost = data(11, "the lost one");
+        RawPacket last = data(12, "x");
+        lost.setOptions(RawPacket.COMPRESSED_OPTION);
+
+        encoder.add(first, 3);
+        encoder.add(lost, 3);
+        RawPacket parity = encoder.add(last, 3);
+
+        Collector collector = new Collector();
+        ParityHandler handler = new ParityHandler(collector);
+        handler.onPacketReceived(first);
+        handler.onPacketReceived(last);
+        handler.onPacketReceived(parity);
+
+        assertEquals(3, collector.packets.size());
+        RawPacket rebuilt = collector.packets.get(2);
+        assertEquals(11, rebuilt.getSequenceNumber());
+        assertEquals("the lost one", new String(rebuilt.getData()));
+        assertEquals(RawPacket.COMPRESSED_OPTION, rebuilt.getOptions());
+        assertEquals(SOURCE, rebuilt.getSourceIp());
+        assertEquals(DESTINATION, rebuilt.getDestinationIp());
+        assertFalse(rebuilt.isParity());
+        assertEquals(1, handler.getRecovered());
+    }
+
+    @Test
+    public void cannotRebuildTwoLostPackets() {
+        ParityEncoder encoder = new ParityEncoder();
+        RawPacket first = data(10, "a");
+        encoder.add(first, 3);
+        encoder.add(data(11, "b"), 3);
+        RawPacket parity = encoder.add(data(12, "c"), 3);
+
+        Collector collector = new Collector();
+        ParityHandler handler = new ParityHandler(collector);
+        handler.onPacketReceived(first);
+        handler.onPacketReceived(parity);
+
+        assertEquals(1, collector.packets.size());
+        assertEquals(0, handler.getRecovered());
+    }
+
+    @Test
+    public void nothingToRebuildWhenNoneLost() {
+        ParityEncoder encoder = new ParityEncoder();
+        Collector collector = new Collector();
+        ParityHandler handler = new ParityHandler(collector);
+        RawPacket parity = null;
+
+        for (int i = 0; i < 4; i++) {
+            RawPacket packet = data(i, "data " + i);
+            parity = encoder.add(packet, 4);
+            handler.onPacketReceived(packet);
+        }
+
+        handler.onPacketReceived(parity);
+
+        assertEquals(4, collector.packets.size());
+        assertEquals(0, handler.getRecovered());
+    }
+
+    @Test
+    public void rebuildsGroupPacketWithOldestBase() {
+        ParityEncoder encoder = new ParityEncoder();
+        RawPacket first = RawPacket.newGroupData(20, 15, SOURCE, RawPacket.BROADCAST, "a".getBytes());
+        RawPacket lost = RawPacket.newGroupData(21, 16, SOURCE, RawPacket.BROADCAST, "b".getBytes());
+        RawPacket last = RawPacket.newGroupData(22, 17, SOURCE, RawPacket.BROADCAST, "c".getBytes());
+
+        encoder.add(first, 3);
+        encoder.add(lost, 3);
+        RawPacket parity = encoder.add(last, 3);
+        assertTrue(parity.isGroup());
+
+        Collector collector = new Collector();
+        ParityHandler handler = new ParityHandler(collector);
+        handler.onPacketReceived(last);
+        handler.onPacketReceived(first);
+        handler.onPacketReceived(parity);
+
+        RawPacket rebuilt = collector.packets.get(2);
+        assertTrue(rebuilt.isGroup());
+        assertEquals(21, rebuilt.getSequenceNumber());
+        assertEquals(15, rebuilt.getAcknowledgmentNumber());
+        assertEquals(RawPacket.BROADCAST, rebuilt.getDestination());
+        assertEquals("b", new String(rebuilt.getData()));
+    }
+
+    @Test
+    public void keepsReceivedPacketWhoseHopsChangeWhenRelayed() {
+        ParityEncoder encoder = new ParityEncoder();
+        RawPacket first = RawPacket.newGroupData(10, 10, SOURCE, RawPacket.BROADCAST, "a".getBytes());
+        encoder.add(first, 2);
+        RawPacket parity = encoder.add(RawPacket.newGroupData(11, 10, SOURCE, RawPacket.BROADCAST, "b".getBytes()), 2);
+
+        Collector collector = new Collector();
+        ParityHandler handler = new ParityHandler(collector);
+        handler.onPacketReceived(first);
+        // Changed after the callback by the relay listener, which must not affect the rebuilt packet.
+        first.decrementHopLimit();
+        first.setPreviousHop(Util.toInt(DESTINATION));
+        handler.onPacketReceived(parity);
+
+        RawPacket rebuilt = collector.packets.get(1);
+        assertEquals(11, rebuilt.getSequenceNumber());
+        assertEquals("b", new String(rebuilt.getData()));
+    }
+}
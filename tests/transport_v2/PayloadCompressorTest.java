@@ -0,0 +1,67 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PayloadCompressorTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void roundTripShrinksShortMessages() {
+        byte[] data = "{\"convId\":3,\"nickname\":\"alice\",\"message\":\"hello\",\"type\":\"textMessage\"}".getBytes(UTF8);
+        byte[] compressed = PayloadCompressor.compress(data);
+
+        // The dictionary makes even a message this short smaller.
+        assertNotNull(compressed);
+        assertTrue(compressed.length < data.length);
+        assertArrayEquals(data, PayloadCompressor.decompress(compressed, data.length));
+    }
+
+    @Test
+    public void roundTripLargeMessage() {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            builder.append("line ").append(i).append('\n');
+        }
+
+        byte[] data = builder.toString().getBytes(UTF8);
+        byte[] compressed = PayloadCompressor.compress(data);
+
+        assertNotNull(compressed);
+        assertArrayEquals(data, PayloadCompressor.decompress(compressed, data.length));
+    }
+
+    @Test
+    public void incompressibleDataIsNotCompressed() {
+        byte[] data = new byte[256];
+        new Random(1).nextBytes(data);
+
+        assertNull(PayloadCompressor.compress(data));
+        assertNull(PayloadCompressor.compress(new byte[0]));
+    }
+
+    @Test
+    public void truncatedOrCorruptDataIsRejected() {
+        byte[] data = "{\"type\":\"requestNickMessage\"}".getBytes(UTF8);
+        byte[] compressed = PayloadCompressor.compress(data);
+
+        assertNull(PayloadCompressor.decompress(Arrays.copyOf(compressed, compressed.length / 2), 1024));
+        assertNull(PayloadCompressor.decompress(new byte[] {(byte) 0xFF, (byte) 0xFF, 0, 1}, 1024));
+    }
+
+    @Test
+    public void dataLargerThanMaximumIsRejected() {
+        byte[] data = new byte[10000];
+        byte[] compressed = PayloadCompressor.compress(data);
+
+        assertNotNull(compressed);
+        assertNull(PayloadCompressor.decompress(compressed, data.length - 1));
+        assertArrayEquals(data, PayloadCompressor.decompress(compressed, data.length));
+    }
+}
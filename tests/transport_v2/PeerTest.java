@@ -0,0 +1,58 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class PeerTest {
+    private static final InetAddress LOCAL = Util.toInetAddress(0x0A000001);
+    private static final InetAddress REMOTE = Util.toInetAddress(0x0A000002);
+
+    private static AckAwaitTimerTask await(Peer peer, RawPacket packet, SendFuture future) {
+        // The tasks are never run, so they need no socket.
+        AckAwaitTimerTask task = new AckAwaitTimerTask(null, packet, peer, 5, 0, future);
+        peer.addSentButNoAck(task);
+        return task;
+    }
+
+    @Test
+    public void cancelDataKeepsHandshake() {
+        Peer peer = new Peer(REMOTE, 8, 10);
+        SendFuture synAckFuture = new SendFuture();
+        SendFuture dataFuture = new SendFuture();
+        SendFuture pendingFuture = new SendFuture();
+        AckAwaitTimerTask synAck = await(peer, RawPacket.newSynAck(1, 7, LOCAL, REMOTE), synAckFuture);
+        AckAwaitTimerTask data = await(peer, RawPacket.newData(2, LOCAL, REMOTE, new byte[] {1}), dataFuture);
+        peer.getSendWindow().enqueue(new byte[] {2}, (byte) 0, pendingFuture);
+        IOException cause = new IOException("Destination restarted");
+
+        peer.cancelData(cause);
+
+        // The restarted peer still has to receive the answer to its SYN.
+        assertTrue(peer.isAwaitingAck(synAck));
+        assertFalse(synAckFuture.isDone());
+        assertFalse(peer.isAwaitingAck(data));
+        assertSame(cause, dataFuture.getCause());
+        assertSame(cause, pendingFuture.getCause());
+        assertEquals(1, peer.getSentButNoAckCount());
+        assertEquals(0, peer.getSendWindow().getPendingCount());
+    }
+
+    @Test
+    public void cancelAllIncludesHandshake() {
+        Peer peer = new Peer(REMOTE, 8, 10);
+        SendFuture synFuture = new SendFuture();
+        AckAwaitTimerTask syn = await(peer, RawPacket.newSynchronization(1, LOCAL, REMOTE), synFuture);
+        await(peer, RawPacket.newData(2, LOCAL, REMOTE, new byte[] {1}), new SendFuture());
+        IOException cause = new IOException("Destination unreachable");
+
+        peer.cancelAll(cause);
+
+        assertFalse(peer.isAwaitingAck(syn));
+        assertSame(cause, synFuture.getCause());
+        assertEquals(0, peer.getSentButNoAckCount());
+    }
+}
@@ -0,0 +1,111 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class RawPacketTest {
+    private static final InetAddress SOURCE = InetAddress.getLoopbackAddress();
+    private static final InetAddress DESTINATION = Util.toInetAddress(0x0A000002);
+
+    @Test
+    public void plainAckOnlyAcknowledgesItsNumber() {
+        RawPacket ack = RawPacket.newAcknowledgement(10, SOURCE, DESTINATION);
+
+        assertTrue(ack.acknowledges(10));
+        assertFalse(ack.acknowledges(9));
+        assertFalse(ack.acknowledges(11));
+    }
+
+    @Test
+    public void selectiveAckIsCumulative() {
+        RawPacket ack = RawPacket.newSelectiveAcknowledgement(10, 0, SOURCE, DESTINATION);
+
+        assertTrue(ack.acknowledges(10));
+        assertTrue(ack.acknowledges(3));
+        assertFalse(ack.acknowledges(11));
+        assertFalse(ack.acknowledges(12));
+    }
+
+    @Test
+    public void selectiveAckBitsStartAfterFirstMissing() {
+        // Bit 0 is 12 and bit 2 is 14, 11 is the first missing packet.
+        RawPacket ack = RawPacket.newSelectiveAcknowledgement(10, 0b101, SOURCE, DESTINATION);
+
+        assertFalse(ack.acknowledges(11));
+        assertTrue(ack.acknowledges(12));
+        assertFalse(ack.acknowledges(13));
+        assertTrue(ack.acknowledges(14));
+        assertFalse(ack.acknowledges(15));
+    }
+
+    @Test
+    public void selectiveAckCoversAllBits() {
+        RawPacket ack = RawPacket.newSelectiveAcknowledgement(10, (1 << RawPacket.SACK_BITS) - 1, SOURCE, DESTINATION);
+
+        assertFalse(ack.acknowledges(11));
+        assertTrue(ack.acknowledges(12));
+        assertTrue(ack.acknowledges(11 + RawPacket.SACK_BITS));
+        assertFalse(ack.acknowledges(12 + RawPacket.SACK_BITS));
+    }
+
+    @Test
+    public void selectiveAckWrapsAround() {
+        RawPacket ack = RawPacket.newSelectiveAcknowledgement(Integer.MAX_VALUE, 0b11, SOURCE, DESTINATION);
+
+        assertTrue(ack.acknowledges(Integer.MAX_VALUE - 1));
+        assertFalse(ack.acknowledges(Integer.MIN_VALUE));
+        assertTrue(ack.acknowledges(Integer.MIN_VALUE + 1));
+        assertTrue(ack.acknowledges(Integer.MIN_VALUE + 2));
+        assertFalse(ack.acknowledges(Integer.MIN_VALUE + 3));
+
+        RawPacket overflow = RawPacket.newSelectiveAcknowledgement(-1, 0b1, SOURCE, DESTINATION);
+
+        assertTrue(overflow.acknowledges(-2));
+        assertFalse(overflow.acknowledges(0));
+        assertTrue(overflow.acknowledges(1));
+    }
+
+    @Test
+    public void nackReportsGapsBeforeHighestSelectiveAck() {
+        RawPacket nack = RawPacket.newNegativeAcknowledgement(10, 0b101, false, SOURCE, DESTINATION);
+
+        assertTrue(nack.acknowledges(12));
+        assertFalse(nack.reportsMissing(10));
+        assertTrue(nack.reportsMissing(11));
+        assertFalse(nack.reportsMissing(12));
+        assertTrue(nack.reportsMissing(13));
+        assertFalse(nack.reportsMissing(14));
+        // Nothing after the highest selectively acknowledged packet is known to be missing.
+        assertFalse(nack.reportsMissing(15));
+    }
+
+    @Test
+    public void nackWithoutSelectiveAckReportsFirstMissing() {
+        RawPacket nack = RawPacket.newNegativeAcknowledgement(10, 0, false, SOURCE, DESTINATION);
+
+        assertTrue(nack.reportsMissing(11));
+        assertFalse(nack.reportsMissing(12));
+        assertFalse(nack.reportsMissing(9));
+    }
+
+    @Test
+    public void nackWrapsAround() {
+        RawPacket nack = RawPacket.newNegativeAcknowledgement(Integer.MAX_VALUE, 0b10, true, SOURCE, DESTINATION);
+
+        assertTrue(nack.isGroup());
+        assertTrue(nack.reportsMissing(Integer.MIN_VALUE));
+        assertTrue(nack.reportsMissing(Integer.MIN_VALUE + 1));
+        assertFalse(nack.reportsMissing(Integer.MIN_VALUE + 2));
+        assertFalse(nack.reportsMissing(Integer.MIN_VALUE + 3));
+    }
+
+    @Test
+    public void onlyNackReportsMissing() {
+        RawPacket ack = RawPacket.newSelectiveAcknowledgement(10, 0b101, SOURCE, DESTINATION);
+
+        assertFalse(ack.reportsMissing(11));
+    }
+}
@@ -0,0 +1,137 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class ReorderBufferTest {
+    private static final InetAddress SOURCE = InetAddress.getLoopbackAddress();
+    private static final InetAddress DESTINATION = Util.toInetAddress(0x0A000002);
+
+    private static RawPacket data(int sequenceNumber) {
+        return RawPacket.newData(sequenceNumber, SOURCE, DESTINATION, new byte[] {1});
+    }
+
+    @Test
+    public void capacityIsRoundedUp() {
+        assertEquals(8, new ReorderBuffer(5, 0).getCapacity());
+        assertEquals(8, new ReorderBuffer(8, 0).getCapacity());
+        assertEquals(1, new ReorderBuffer(0, 0).getCapacity());
+    }
+
+    @Test
+    public void releasesPacketsInOrderOnceGapIsFilled() {
+        ReorderBuffer buffer = new ReorderBuffer(8, 10);
+
+        assertTrue(buffer.add(data(13)));
+        assertTrue(buffer.add(data(12)));
+        assertNull(buffer.peek());
+        assertNull(buffer.poll());
+        assertEquals(2, buffer.size());
+        assertEquals(13, buffer.getHighestSequenceNumber());
+
+        assertTrue(buffer.add(data(11)));
+        assertEquals(11, buffer.peek().getSequenceNumber());
+        assertEquals(11, buffer.poll().getSequenceNumber());
+        assertEquals(12, buffer.poll().getSequenceNumber());
+        assertEquals(13, buffer.poll().getSequenceNumber());
+        assertNull(buffer.poll());
+
+        assertTrue(buffer.isEmpty());
+        assertEquals(13, buffer.getLastInOrderSequenceNumber());
+    }
+
+    @Test
+    public void acceptsOldAndDuplicatePacketsWithoutBufferingThem() {
+        ReorderBuffer buffer = new ReorderBuffer(8, 10);
+
+        assertTrue(buffer.add(data(10)));
+        assertTrue(buffer.add(data(5)));
+        assertTrue(buffer.isEmpty());
+
+        assertTrue(buffer.add(data(12)));
+        assertTrue(buffer.add(data(12)));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void rejectsPacketsBeyondCapacity() {
+        ReorderBuffer buffer = new ReorderBuffer(4, 10);
+
+        assertTrue(buffer.add(data(14)));
+        assertFalse(buffer.add(data(15)));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void wrapsAroundSequenceNumbers() {
+        ReorderBuffer buffer = new ReorderBuffer(8, Integer.MAX_VALUE - 1);
+
+        assertTrue(buffer.add(data(Integer.MIN_VALUE + 1)));
+        assertTrue(buffer.add(data(Integer.MIN_VALUE)));
+        assertEquals(Integer.MIN_VALUE + 1, buffer.getHighestSequenceNumber());
+        assertNull(buffer.poll());
+
+        assertTrue(buffer.add(data(Integer.MAX_VALUE)));
+        assertEquals(Integer.MAX_VALUE, buffer.poll().getSequenceNumber());
+        assertEquals(Integer.MIN_VALUE, buffer.poll().getSequenceNumber());
+        assertEquals(Integer.MIN_VALUE + 1, buffer.poll().getSequenceNumber());
+        assertEquals(Integer.MIN_VALUE + 1, buffer.getLastInOrderSequenceNumber());
+
+        // Far behind across the wrap, so an old duplicate.
+        assertTrue(buffer.add(data(Integer.MAX_VALUE - 3)));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void selectiveBitsStartAfterFirstGap() {
+        ReorderBuffer buffer = new ReorderBuffer(8, 10);
+        buffer.add(data(12));
+        buffer.add(data(14));
+
+        assertEquals(0b101, buffer.getSelectiveBits(16));
+        assertEquals(0b1, buffer.getSelectiveBits(1));
+        assertEquals(0, new ReorderBuffer(8, 10).getSelectiveBits(16));
+    }
+
+    @Test
+    public void selectiveBitsWrapAround() {
+        ReorderBuffer buffer = new ReorderBuffer(8, Integer.MAX_VALUE);
+        buffer.add(data(Integer.MIN_VALUE + 1));
+        buffer.add(data(Integer.MIN_VALUE + 3));
+
+        assertEquals(0b101, buffer.getSelectiveBits(16));
+    }
+
+    @Test
+    public void skipDropsPacketsUpToItAndKeepsLaterOnes() {
+        ReorderBuffer buffer = new ReorderBuffer(8, 10);
+        buffer.add(data(12));
+        buffer.add(data(14));
+        buffer.add(data(15));
+
+        assertEquals(1, buffer.skipTo(13));
+        assertEquals(13, buffer.getLastInOrderSequenceNumber());
+        assertEquals(14, buffer.poll().getSequenceNumber());
+        assertEquals(15, buffer.poll().getSequenceNumber());
+        assertTrue(buffer.isEmpty());
+
+        // Skipping backwards changes nothing.
+        assertEquals(0, buffer.skipTo(12));
+        assertEquals(15, buffer.getLastInOrderSequenceNumber());
+    }
+
+    @Test
+    public void skipBeyondCapacityEmptiesBuffer() {
+        ReorderBuffer buffer = new ReorderBuffer(4, Integer.MAX_VALUE - 1);
+        buffer.add(data(Integer.MAX_VALUE));
+        buffer.add(data(Integer.MIN_VALUE + 2));
+
+        assertEquals(2, buffer.skipTo(Integer.MIN_VALUE + 100));
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.add(data(Integer.MIN_VALUE + 101)));
+        assertEquals(Integer.MIN_VALUE + 101, buffer.poll().getSequenceNumber());
+    }
+}
@@ -0,0 +1,82 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class RoutingTableTest {
+    private static final InetAddress DESTINATION = Util.toInetAddress(0x0A000005);
+    private static final int NEIGHBOUR = 0x0A000002;
+    private static final int OTHER_NEIGHBOUR = 0x0A000003;
+
+    private static RawPacket announceVia(int previousHop, int hops) {
+        RawPacket announce = RawPacket.newAnnounce(DESTINATION);
+
+        for (int i = 1; i < hops; i++) {
+            announce.decrementHopLimit();
+        }
+
+        announce.setPreviousHop(previousHop);
+        return announce;
+    }
+
+    @Test
+    public void learnsNextHopFromAnnounce() {
+        PeerTable peers = new PeerTable(8, 10);
+        RoutingTable routes = new RoutingTable(peers, 10000);
+        Peer peer = peers.getOrCreate(DESTINATION);
+
+        routes.learn(peer, announceVia(NEIGHBOUR, 3));
+
+        assertEquals(NEIGHBOUR, routes.getNextHop(peer.getAddress()));
+        assertEquals(3, peer.getRoute().getDistance());
+    }
+
+    @Test
+    public void floodsWithoutRoute() {
+        PeerTable peers = new PeerTable(8, 10);
+        RoutingTable routes = new RoutingTable(peers, 10000);
+
+        assertEquals(RawPacket.BROADCAST, routes.getNextHop(Util.toInt(DESTINATION)));
+        peers.getOrCreate(DESTINATION);
+        assertEquals(RawPacket.BROADCAST, routes.getNextHop(Util.toInt(DESTINATION)));
+    }
+
+    @Test
+    public void routeExpiresWithoutAnnounces() throws InterruptedException {
+        PeerTable peers = new PeerTable(8, 10);
+        RoutingTable routes = new RoutingTable(peers, 20);
+        Peer peer = peers.getOrCreate(DESTINATION);
+        routes.learn(peer, announceVia(NEIGHBOUR, 2));
+
+        Thread.sleep(50);
+
+        assertEquals(RawPacket.BROADCAST, routes.getNextHop(peer.getAddress()));
+
+        // The next announce refreshes it.
+        routes.learn(peer, announceVia(OTHER_NEIGHBOUR, 2));
+        assertEquals(OTHER_NEIGHBOUR, routes.getNextHop(peer.getAddress()));
+    }
+
+    @Test
+    public void invalidatesSingleRouteOrAllRoutesViaNeighbour() {
+        PeerTable peers = new PeerTable(8, 10);
+        RoutingTable routes = new RoutingTable(peers, 10000);
+        Peer destination = peers.getOrCreate(DESTINATION);
+        Peer other = peers.getOrCreate(Util.toInetAddress(0x0A000006));
+        Peer elsewhere = peers.getOrCreate(Util.toInetAddress(0x0A000007));
+        routes.learn(destination, announceVia(NEIGHBOUR, 2));
+        routes.learn(other, announceVia(NEIGHBOUR, 2));
+        routes.learn(elsewhere, announceVia(OTHER_NEIGHBOUR, 2));
+
+        routes.invalidate(destination.getAddress());
+        assertEquals(RawPacket.BROADCAST, routes.getNextHop(destination.getAddress()));
+        assertEquals(NEIGHBOUR, routes.getNextHop(other.getAddress()));
+
+        routes.invalidateVia(NEIGHBOUR);
+        assertEquals(RawPacket.BROADCAST, routes.getNextHop(other.getAddress()));
+        assertEquals(OTHER_NEIGHBOUR, routes.getNextHop(elsewhere.getAddress()));
+    }
+}
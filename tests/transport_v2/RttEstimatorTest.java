@@ -0,0 +1,68 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RttEstimatorTest {
+    @Test
+    public void startsWithInitialTimeout() {
+        RttEstimator estimator = new RttEstimator(10);
+
+        assertEquals(RttEstimator.INITIAL_TIMEOUT, estimator.getTimeout());
+        assertEquals(RttEstimator.INITIAL_TIMEOUT, estimator.getTimeout(0));
+    }
+
+    @Test
+    public void firstSampleSetsSmoothedRttAndVariance() {
+        RttEstimator estimator = new RttEstimator(10);
+        estimator.addSample(100);
+
+        assertEquals(100, estimator.getSmoothedRtt(), 0.001);
+        assertEquals(50, estimator.getRttVariance(), 0.001);
+        // 100 + 4 * 50
+        assertEquals(300, estimator.getTimeout());
+    }
+
+    @Test
+    public void laterSamplesAreSmoothed() {
+        RttEstimator estimator = new RttEstimator(10);
+        estimator.addSample(100);
+        estimator.addSample(200);
+
+        // variance = 3/4 * 50 + 1/4 * |100 - 200|, smoothed = 7/8 * 100 + 1/8 * 200
+        assertEquals(62.5, estimator.getRttVariance(), 0.001);
+        assertEquals(112.5, estimator.getSmoothedRtt(), 0.001);
+        assertEquals(363, estimator.getTimeout());
+    }
+
+    @Test
+    public void timeoutIsBounded() {
+        RttEstimator fast = new RttEstimator(1);
+        fast.addSample(1);
+        assertEquals(RttEstimator.MIN_TIMEOUT, fast.getTimeout());
+
+        RttEstimator slow = new RttEstimator(1);
+        slow.addSample(60 * 1000);
+        assertEquals(RttEstimator.MAX_TIMEOUT, slow.getTimeout());
+    }
+
+    @Test
+    public void granularityIsLowerBoundOfVarianceTerm() {
+        RttEstimator estimator = new RttEstimator(500);
+        estimator.addSample(100);
+
+        assertEquals(600, estimator.getTimeout());
+    }
+
+    @Test
+    public void backoffDoublesPerAttempt() {
+        RttEstimator estimator = new RttEstimator(10);
+
+        assertEquals(2000, estimator.getTimeout(1));
+        assertEquals(4000, estimator.getTimeout(2));
+        assertEquals(16000, estimator.getTimeout(4));
+        assertEquals(RttEstimator.MAX_TIMEOUT, estimator.getTimeout(5));
+        assertEquals(RttEstimator.MAX_TIMEOUT, estimator.getTimeout(100));
+    }
+}
@@ -0,0 +1,91 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class SendFutureTest {
+    private static class Recorder implements SendListener {
+        private final List<SendFuture> completed = new ArrayList<>();
+
+        @Override
+        public void onSendComplete(SendFuture future) {
+            completed.add(future);
+        }
+    }
+
+    @Test
+    public void completesOnlyOnce() throws Exception {
+        SendFuture future = new SendFuture();
+        Recorder recorder = new Recorder();
+        future.addListener(recorder);
+        assertFalse(future.isDone());
+
+        future.complete();
+        future.fail(new IOException("too late"));
+
+        assertTrue(future.isSuccess());
+        assertNull(future.getCause());
+        assertNull(future.get());
+        assertEquals(1, recorder.completed.size());
+        assertFalse(future.cancel(true));
+    }
+
+    @Test
+    public void failureIsThrownFromGet() throws InterruptedException {
+        IOException cause = new IOException("No acknowledgement");
+        SendFuture future = SendFuture.failed(cause);
+
+        assertTrue(future.isDone());
+        assertFalse(future.isSuccess());
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(cause, e.getCause());
+        }
+    }
+
+    @Test
+    public void listenerAddedWhenDoneIsCalledAtOnce() {
+        SendFuture future = new SendFuture();
+        future.complete();
+        Recorder recorder = new Recorder();
+
+        future.addListener(recorder);
+
+        assertEquals(Arrays.asList(future), recorder.completed);
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void getTimesOut() throws Exception {
+        new SendFuture().get(20, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void allWaitsForEveryFutureAndKeepsFirstFailure() {
+        SendFuture first = new SendFuture();
+        SendFuture second = new SendFuture();
+        SendFuture third = new SendFuture();
+        SendFuture all = SendFuture.all(Arrays.asList(first, second, third));
+        IOException cause = new IOException("first failure");
+
+        second.fail(cause);
+        assertFalse(all.isDone());
+        first.complete();
+        third.fail(new IOException("second failure"));
+
+        assertTrue(all.isDone());
+        assertSame(cause, all.getCause());
+        assertTrue(SendFuture.all(new ArrayList<SendFuture>()).isSuccess());
+    }
+}
@@ -0,0 +1,34 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class SendPriorityTest {
+    private static final InetAddress LOCAL = Util.toInetAddress(0x0A000001);
+    private static final InetAddress REMOTE = Util.toInetAddress(0x0A000002);
+    private static final InetAddress OTHER = Util.toInetAddress(0x0A000003);
+    private static final int ADDRESS = Util.toInt(LOCAL);
+
+    @Test
+    public void controlPacketsComeFirstWhoeverSentThem() {
+        assertEquals(SendPriority.CONTROL, SendPriority.of(RawPacket.newAcknowledgement(1, LOCAL, REMOTE), ADDRESS));
+        assertEquals(SendPriority.CONTROL, SendPriority.of(RawPacket.newAcknowledgement(1, REMOTE, OTHER), ADDRESS));
+        assertEquals(SendPriority.CONTROL, SendPriority.of(RawPacket.newSynchronization(1, REMOTE, OTHER), ADDRESS));
+        assertEquals(SendPriority.CONTROL,
+                SendPriority.of(RawPacket.newNegativeAcknowledgement(1, 2, true, REMOTE, OTHER), ADDRESS));
+        assertEquals(SendPriority.CONTROL, SendPriority.of(RawPacket.newAnnounce(REMOTE), ADDRESS));
+    }
+
+    @Test
+    public void dataIsClassedBySourceAndSize() {
+        byte[] small = new byte[SendPriority.MAX_INTERACTIVE_DATA];
+        byte[] large = new byte[SendPriority.MAX_INTERACTIVE_DATA + 1];
+
+        assertEquals(SendPriority.INTERACTIVE, SendPriority.of(RawPacket.newData(1, LOCAL, REMOTE, small), ADDRESS));
+        assertEquals(SendPriority.BULK, SendPriority.of(RawPacket.newData(1, LOCAL, REMOTE, large), ADDRESS));
+        assertEquals(SendPriority.BULK, SendPriority.of(RawPacket.newData(1, REMOTE, OTHER, small), ADDRESS));
+    }
+}
@@ -0,0 +1,121 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SendWindowTest {
+    @Test
+    public void limitIsSmallerOfSizeAndPeerWindow() {
+        SendWindow window = new SendWindow(4);
+        assertEquals(4, window.getLimit());
+
+        window.setPeerWindow(2);
+        assertEquals(2, window.getLimit());
+
+        window.setPeerWindow(100);
+        assertEquals(4, window.getLimit());
+
+        // A closed window still lets one packet through to probe the peer.
+        window.setPeerWindow(0);
+        assertEquals(1, window.getLimit());
+    }
+
+    @Test
+    public void fullWindowTimesOut() throws IOException {
+        SendWindow window = new SendWindow(2);
+        window.awaitSpace(0);
+        window.add(1);
+        window.awaitSpace(0);
+        window.add(2);
+
+        long start = System.currentTimeMillis();
+
+        try {
+            window.awaitSpace(50);
+            fail();
+        } catch (IOException e) {
+            assertTrue(System.currentTimeMillis() - start >= 50);
+        }
+
+        assertTrue(window.remove(1));
+        assertFalse(window.remove(1));
+        window.awaitSpace(0);
+        assertEquals(1, window.getInFlight());
+    }
+
+    @Test
+    public void acknowledgementWakesWaitingSender() throws Exception {
+        final SendWindow window = new SendWindow(1);
+        window.add(1);
+
+        Thread acknowledger = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                window.remove(1);
+            }
+        });
+        acknowledger.start();
+
+        window.awaitSpace(5000);
+        acknowledger.join();
+        assertEquals(0, window.getInFlight());
+    }
+
+    @Test
+    public void pendingSendsWaitForRoomInOrder() throws IOException {
+        SendWindow window = new SendWindow(1);
+        SendFuture first = new SendFuture();
+        window.enqueue(new byte[] {1}, (byte) 0, first);
+        window.enqueue(new byte[] {2}, (byte) 0, new SendFuture());
+
+        SendWindow.Pending pending = window.pollPending();
+        assertSame(first, pending.getFuture());
+        window.add(10);
+        assertNull(window.pollPending());
+
+        // Blocking sends queue up behind the asynchronous ones.
+        try {
+            window.awaitSpace(0);
+            fail();
+        } catch (IOException expected) {
+        }
+
+        window.remove(10);
+        assertArrayEquals(new byte[] {2}, window.pollPending().getData());
+        assertNull(window.pollPending());
+    }
+
+    @Test
+    public void fragmentsAllButTheLastHaveMoreFragments() {
+        SendWindow window = new SendWindow(8);
+        List<byte[]> fragments = Arrays.asList(new byte[] {1}, new byte[] {2}, new byte[] {3});
+        SendFuture message = window.enqueueFragments(fragments, RawPacket.COMPRESSED_OPTION);
+        List<SendWindow.Pending> pending = new ArrayList<>();
+        window.drainPending(pending);
+
+        assertEquals(3, pending.size());
+        assertEquals(RawPacket.COMPRESSED_OPTION | RawPacket.MORE_FRAGMENTS_OPTION, pending.get(0).getOptions());
+        assertEquals(RawPacket.COMPRESSED_OPTION | RawPacket.MORE_FRAGMENTS_OPTION, pending.get(1).getOptions());
+        assertEquals(RawPacket.COMPRESSED_OPTION, pending.get(2).getOptions());
+        assertEquals(0, window.getPendingCount());
+
+        // The message is sent when every fragment is.
+        pending.get(0).getFuture().complete();
+        pending.get(2).getFuture().complete();
+        assertFalse(message.isDone());
+        pending.get(1).getFuture().complete();
+        assertTrue(message.isSuccess());
+    }
+}
@@ -0,0 +1,87 @@
+package transport_v2;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+    private static final long TICK = 10;
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void runsTaskAfterDelay() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel(TICK, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+
+        TimingWheel.Timeout timeout = wheel.schedule(countDown(latch), 50);
+        assertTrue(timeout.isPending());
+        assertEquals(1, wheel.getPendingCount());
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 50 - TICK);
+        assertFalse(timeout.isPending());
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    public void waitsForRemainingRounds() throws InterruptedException {
+        // The delay spans several rotations of a wheel with only 4 buckets.
+        TimingWheel wheel = new TimingWheel(TICK, 4);
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+
+        wheel.schedule(countDown(latch), 200);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 200 - TICK);
+    }
+
+    @Test
+    public void cancelledTaskDoesNotRun() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel(TICK, 8);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch other = new CountDownLatch(1);
+
+        TimingWheel.Timeout timeout = wheel.schedule(countDown(cancelled), 30);
+        // Scheduled in the same bucket, so cancelling must unlink from the middle of its list.
+        TimingWheel.Timeout expiring = wheel.schedule(countDown(other), 30);
+        assertTrue(timeout.cancel());
+        // Only the first cancel wins.
+        assertFalse(timeout.cancel());
+
+        assertFalse(timeout.isPending());
+        assertEquals(1, wheel.getPendingCount());
+        assertTrue(other.await(1, TimeUnit.SECONDS));
+        assertFalse(cancelled.await(100, TimeUnit.MILLISECONDS));
+        // Too late once the wheel took it off to run it.
+        assertFalse(expiring.cancel());
+    }
+
+    @Test
+    public void failingTaskDoesNotStopWheel() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel(TICK, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected by the test");
+            }
+        }, 10);
+        wheel.schedule(countDown(latch), 40);
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+}